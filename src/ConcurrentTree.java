@@ -0,0 +1,429 @@
+// Binary search tree that many threads can insert into and query at once
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Unbalanced bst with the same shape rules as Tree (ties go left), built for concurrent use.
+// Nodes are never moved or removed, an insert only bumps counts on its path and links one new leaf, so:
+//   - contains and lca never lock, they just follow volatile child links.
+//   - insert is optimistic: it counts itself into every node on the way down, then links the leaf with a
+//     compare-and-set. If another thread won the race for that child it keeps descending from the winner.
+//     Besides the count it bumps a pending count for that side of the node, and drops it again once the leaf
+//     is linked. Writers only touch the nodes on their own path, there is no lock or counter shared by all of them.
+//   - findNthInOrder reads leftCt/rightCt, which can be ahead of the links while inserts are in flight. Each count
+//     it uses is only taken while nothing is pending on that side, and is read again at the end. If none changed,
+//     every count matched its subtree at one moment, and the answer is the one for that moment. Otherwise it
+//     retries, which only happens when an insert crossed one of the counts it used. After OPTIMISTIC_TRIES failed
+//     tries it raises starvedReaders, which new inserts wait on before they start. The inserts already on their way
+//     finish, and then the read goes through, so a read can't be starved by a steady stream of writers.
+//   - size comes from a striped counter of linked leaves, not from the root's counts, so it never retries.
+public class ConcurrentTree<E extends Comparable<? super E>> {
+    private static final int PATH_CAPACITY = 32;
+    private static final int OPTIMISTIC_TRIES = 64;
+
+    /**
+     * Public method to create an empty tree
+     *
+     * @param label Name of tree (for printing)
+     */
+    public ConcurrentTree(String label) {
+        treeName = label;
+    }
+
+    /** O(logn), lock free
+     * Insert into the bst tree. Safe to call from any number of threads.
+     *
+     * @param newElement the item to insert.
+     */
+    public void insert(E newElement) {
+        while (starvedReaders != 0) Thread.yield(); //let a starved read finish first
+        Node<E> n = root;
+        if (n == null) {
+            Node<E> first = new Node<>(newElement, null);
+            if (ROOT.compareAndSet(this, null, first)) {
+                settle(first);
+                return;
+            }
+            n = root;
+        }
+        while (true) {
+            Node<E> child;
+            if (newElement.compareTo(n.element) <= 0) {
+                LEFT_PENDING.getAndAdd(n, 1); //before the count, so a reader never sees the count alone
+                LEFT_CT.getAndAdd(n, 1);
+                child = n.left;
+                if (child == null) {
+                    Node<E> leaf = new Node<>(newElement, n);
+                    if (LEFT.compareAndSet(n, null, leaf)) {
+                        settle(leaf);
+                        return;
+                    }
+                    child = n.left; //another insert linked a leaf here first, go on below it
+                }
+            } else {
+                RIGHT_PENDING.getAndAdd(n, 1);
+                RIGHT_CT.getAndAdd(n, 1);
+                child = n.right;
+                if (child == null) {
+                    Node<E> leaf = new Node<>(newElement, n);
+                    if (RIGHT.compareAndSet(n, null, leaf)) {
+                        settle(leaf);
+                        return;
+                    }
+                    child = n.right;
+                }
+            }
+            n = child;
+        }
+    }
+
+    /** O(logn)
+     * Climb from a newly linked leaf to the root, dropping the pending count the insert left on each side it took,
+     * then count the leaf for size
+     * @param leaf the leaf just linked
+     */
+    private void settle(Node<E> leaf) {
+        for (Node<E> child = leaf, n = leaf.parent; n != null; child = n, n = n.parent) {
+            if (n.left == child) LEFT_PENDING.getAndAdd(n, -1);
+            else RIGHT_PENDING.getAndAdd(n, -1);
+        }
+        linked.increment();
+    }
+
+    /** O(logn), lock free
+     * Find an item in the tree.
+     *
+     * @param lookFor the item to search for.
+     * @return true if lookFor is found.
+     */
+    public boolean contains(E lookFor) {
+        Node<E> n = root;
+        while (n != null) {
+            int compareResult = lookFor.compareTo(n.element);
+            if (compareResult < 0) n = n.left;
+            else if (compareResult > 0) n = n.right;
+            else return true;
+        }
+        return false;
+    }
+
+    /** O(logn), lock free
+     * @param element1 element in tree
+     * @param element2 second element in tree
+     * @return least common ancestor of element1 and element2, null if the tree is empty
+     */
+    public E lca(E element1, E element2) {
+        boolean inOrder = element1.compareTo(element2) < 0;
+        E low = inOrder ? element1 : element2;
+        E high = inOrder ? element2 : element1;
+        Node<E> t = root;
+        if (t == null) return null;
+        while (true) {
+            Node<E> next = null;
+            if (t.element.compareTo(high) > 0) next = t.left;
+            else if (t.element.compareTo(low) < 0) next = t.right;
+            if (next == null) return t.element;
+            t = next;
+        }
+    }
+
+    /** O(logn), lock free
+     * Retries while inserts cross the counts it reads. Only if that keeps happening does it hold off new inserts.
+     *
+     * @param n the ordinal number of the node desired (1 is the smallest)
+     * @return the nth smallest element, null if there is none
+     */
+    public E findNthInOrder(int n) {
+        return consistentRead(read -> select(n, read));
+    }
+
+    /** O(1), lock free
+     * Inserts in flight may or may not be counted yet, every insert that has returned is.
+     * @return number of elements in the tree
+     */
+    public int size() {
+        return (int) linked.sum();
+    }
+
+    /**
+     * Run a read that depends on the subtree counts until it sees no insert half done.
+     * The read takes its counts through the ReadSet, which fails it if an insert is pending on that side. The result
+     * is kept once every count is still the same afterwards, otherwise the read runs again. After OPTIMISTIC_TRIES
+     * failures new inserts are held off until the read succeeds, which it does once the ones in flight are done.
+     *
+     * @param read the read to run, may be run several times
+     * @return the result of the read
+     */
+    private <T> T consistentRead(Function<ReadSet, T> read) {
+        ReadSet counts = new ReadSet();
+        for (int attempt = 0; attempt < OPTIMISTIC_TRIES; attempt++) {
+            counts.clear();
+            T result = read.apply(counts);
+            if (counts.valid()) return result;
+            Thread.onSpinWait();
+        }
+        STARVED_READERS.getAndAdd(this, 1);
+        try {
+            while (true) {
+                counts.clear();
+                T result = read.apply(counts);
+                if (counts.valid()) return result;
+                Thread.yield(); //the inserts in flight need the cpu to finish
+            }
+        } finally {
+            STARVED_READERS.getAndAdd(this, -1);
+        }
+    }
+
+    /** O(logn)
+     * Descend by subtree counts. Only meaningful if read is still valid afterwards.
+     * @param n    the ordinal number of the node desired
+     * @param read counts used so far
+     * @return the nth smallest element, null if there is none
+     */
+    private E select(int n, ReadSet read) {
+        Node<E> t = root;
+        if (t == null || n < 1) return null;
+        while (true) {
+            int leftCount = read.count(t, true);
+            if (read.failed) return null;
+            if (n == leftCount + 1) return t.element;
+            if (n <= leftCount) {
+                t = t.left;
+                if (t == null) { //counts were ahead of the links, a later check fails anyway
+                    read.failed = true;
+                    return null;
+                }
+            } else {
+                n -= leftCount + 1;
+                if (t.right == null) {
+                    read.count(t, false); //n is past the end only if nothing is on its way in on the right
+                    return null;
+                }
+                t = t.right;
+            }
+        }
+    }
+
+    // Counts taken by one optimistic read, so they can be checked again when it is done
+    private static final class ReadSet {
+        private Node<?>[] nodes = new Node<?>[PATH_CAPACITY];  // Node of each count
+        private boolean[] lefts = new boolean[PATH_CAPACITY];  // Side of each count
+        private int[] counts = new int[PATH_CAPACITY];         // Value of each count when it was read
+        private int size;       // Counts taken
+        private boolean failed; // An insert was pending on one of the sides
+
+        void clear() {
+            size = 0;
+            failed = false;
+        }
+
+        /**
+         * Read one side's count of a node, failing the read if an insert is partway through that side
+         * @param n    node to read
+         * @param left true for leftCt, false for rightCt
+         * @return the count
+         */
+        int count(Node<?> n, boolean left) {
+            int count = left ? n.leftCt : n.rightCt;
+            if ((left ? n.leftPending : n.rightPending) != 0) failed = true;
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                lefts = Arrays.copyOf(lefts, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            nodes[size] = n;
+            lefts[size] = left;
+            counts[size++] = count;
+            return count;
+        }
+
+        /**
+         * A count is read before its pending count, and counts only grow, so a count that is the same now and had
+         * nothing pending then matched its subtree from that check until now. All of them did at the last check.
+         * @return true if no count was pending and none has changed
+         */
+        boolean valid() {
+            if (failed) return false;
+            for (int i = 0; i < size; i++) {
+                if ((lefts[i] ? nodes[i].leftCt : nodes[i].rightCt) != counts[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    /** O(n)
+     * Check every node's counts against its subtrees. Only meaningful when no insert is running.
+     * @return true if leftCt and rightCt match the subtrees everywhere and nothing is pending
+     */
+    boolean countsConsistent() {
+        return root == null || subtreeSize(root) >= 0;
+    }
+
+    /**
+     * @return size of subtree t, or -1 if some count below t is wrong
+     */
+    private int subtreeSize(Node<E> t) {
+        ArrayList<Node<E>> stack = new ArrayList<>();
+        ArrayList<Node<E>> order = new ArrayList<>();
+        stack.add(t);
+        while (!stack.isEmpty()) { //preorder, so every child comes after its parent in order
+            Node<E> n = stack.remove(stack.size() - 1);
+            order.add(n);
+            if (n.left != null) stack.add(n.left);
+            if (n.right != null) stack.add(n.right);
+        }
+        IdentityHashMap<Node<E>, Integer> sizes = new IdentityHashMap<>();
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Node<E> n = order.get(i);
+            int leftSize = n.left == null ? 0 : sizes.get(n.left);
+            int rightSize = n.right == null ? 0 : sizes.get(n.right);
+            if (leftSize != n.leftCt || rightSize != n.rightCt || n.leftPending != 0 || n.rightPending != 0) return -1;
+            sizes.put(n, leftSize + rightSize + 1);
+        }
+        return sizes.get(t);
+    }
+
+    public String toString() {
+        return treeName + " size " + size();
+    }
+
+    // Node of a concurrent tree. element and parent are fixed, links and counts only change through the VarHandles.
+    private static final class Node<T> {
+        Node(T theElement, Node<T> theParent) {
+            element = theElement;
+            parent = theParent;
+        }
+
+        final T element;           // The data in the node
+        final Node<T> parent;      // Parent node, null at the root
+        volatile Node<T> left;     // Left child
+        volatile Node<T> right;    // Right child
+        volatile int leftCt;       // Count of nodes in left subtree, inserts in flight included
+        volatile int rightCt;      // Count of nodes in right subtree, inserts in flight included
+        volatile int leftPending;  // Inserts counted in leftCt whose leaf is not linked yet
+        volatile int rightPending; // Inserts counted in rightCt whose leaf is not linked yet
+    }
+
+    private static final VarHandle ROOT;
+    private static final VarHandle STARVED_READERS;
+    private static final VarHandle LEFT;
+    private static final VarHandle RIGHT;
+    private static final VarHandle LEFT_CT;
+    private static final VarHandle RIGHT_CT;
+    private static final VarHandle LEFT_PENDING;
+    private static final VarHandle RIGHT_PENDING;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            ROOT = lookup.findVarHandle(ConcurrentTree.class, "root", Node.class);
+            STARVED_READERS = lookup.findVarHandle(ConcurrentTree.class, "starvedReaders", int.class);
+            LEFT = lookup.findVarHandle(Node.class, "left", Node.class);
+            RIGHT = lookup.findVarHandle(Node.class, "right", Node.class);
+            LEFT_CT = lookup.findVarHandle(Node.class, "leftCt", int.class);
+            RIGHT_CT = lookup.findVarHandle(Node.class, "rightCt", int.class);
+            LEFT_PENDING = lookup.findVarHandle(Node.class, "leftPending", int.class);
+            RIGHT_PENDING = lookup.findVarHandle(Node.class, "rightPending", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile Node<E> root;  // Root of tree
+    private final LongAdder linked = new LongAdder();  // Leaves linked so far, striped so writers don't share it
+    private volatile int starvedReaders;  // Reads that gave up retrying, new inserts wait while this is not 0
+    private final String treeName;  // Name of tree for printing
+
+
+    // Main is a stress test: writer threads insert while reader threads query, then the result is checked.
+    // Afterwards it times inserts for 1, 2, 4 ... threads up to the core count.
+    public static void main(String[] args) throws InterruptedException {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int perThread = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        final int writers = Math.max(2, cores / 2);
+        final int readers = Math.max(2, cores / 2);
+
+        ConcurrentTree<Integer> tree = new ConcurrentTree<>("Stress:");
+        Thread[] threads = new Thread[writers + readers];
+        final boolean[] failed = new boolean[1];
+        for (int w = 0; w < writers; w++) {
+            final int id = w;
+            threads[w] = new Thread(() -> {
+                Random rand = new Random(id);
+                for (int i = 0; i < perThread; i++) {
+                    int key = rand.nextInt(perThread) * writers + id; //distinct per writer
+                    tree.insert(key);
+                    if (!tree.contains(key)) failed[0] = true; //must see its own insert
+                }
+            });
+        }
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong longestRead = new AtomicLong();
+        for (int r = 0; r < readers; r++) {
+            final int id = r;
+            threads[writers + r] = new Thread(() -> {
+                Random rand = new Random(1000 + id);
+                while (tree.size() < writers * perThread) {
+                    int size = tree.size();
+                    if (size > 0) {
+                        int k = 1 + rand.nextInt(size);
+                        long readStart = System.nanoTime();
+                        if (tree.findNthInOrder(k) == null) failed[0] = true; //size only grows
+                        longestRead.accumulateAndGet(System.nanoTime() - readStart, Math::max);
+                        tree.lca(rand.nextInt(perThread * writers), rand.nextInt(perThread * writers));
+                    }
+                    reads.incrementAndGet();
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        long elapsed = System.nanoTime() - start;
+
+        boolean ordered = true;
+        Integer last = null;
+        for (int k = 1; k <= tree.size(); k++) {
+            Integer next = tree.findNthInOrder(k);
+            if (last != null && next < last) ordered = false;
+            last = next;
+        }
+        System.out.println(tree + " after " + writers + " writers and " + readers + " readers in "
+                + elapsed / 1_000_000 + "ms, " + reads.get() + " read rounds, longest findNthInOrder "
+                + longestRead.get() / 1_000 + "us");
+        System.out.println("size correct " + (tree.size() == writers * perThread)
+                + ", counts consistent " + tree.countsConsistent()
+                + ", in order " + ordered
+                + ", no failed reads " + !failed[0]);
+
+        for (int threadCount = 1; threadCount <= cores; threadCount *= 2) {
+            ConcurrentTree<Integer> timed = new ConcurrentTree<>("Timed:");
+            Thread[] inserters = new Thread[threadCount];
+            final int count = threadCount;
+            final int keysEach = perThread * 4 / threadCount;
+            for (int w = 0; w < threadCount; w++) {
+                final int id = w;
+                inserters[w] = new Thread(() -> {
+                    Random rand = new Random(id);
+                    for (int i = 0; i < keysEach; i++) {
+                        timed.insert(rand.nextInt() * count + id);
+                    }
+                });
+            }
+            start = System.nanoTime();
+            for (Thread t : inserters) t.start();
+            for (Thread t : inserters) t.join();
+            elapsed = System.nanoTime() - start;
+            System.out.println(threadCount + " threads: " + (keysEach * (long) threadCount * 1_000_000L / elapsed)
+                    + " inserts/ms");
+        }
+    }
+}
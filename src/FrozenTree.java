@@ -0,0 +1,175 @@
+// Read only copy of a Tree laid out for cache friendly lookups
+
+// Built by Tree.freeze. The tree keeps its exact shape, so contains, lca, select and rank give the same answers as
+// the Tree had when it was frozen, but the nodes are stored in van Emde Boas order instead of being scattered over
+// the heap: the top half of the levels is laid out first, then each subtree hanging below it, each part laid out the
+// same way recursively. A subtree of any height h is then split into pieces of about sqrt(h) levels that sit in
+// consecutive slots, so a descent loads O(log_B n) cache lines of node records instead of one line per level.
+// Keys are kept in one array and the links and counts in another, STRIDE ints per node. Nothing changes after
+// construction, so any number of threads can query it at once.
+public class FrozenTree<E extends Comparable<? super E>> {
+    static final int STRIDE = 4;  // ints per node in nodes
+    static final int LEFT = 0;
+    static final int RIGHT = 1;
+    static final int LEFT_CT = 2;
+    static final int COUNT = 3;   // Copies of the element, only above 1 for a multiset tree
+    static final int NIL = -1;    // Index used for a missing child
+
+    /**
+     * @param keys   elements of the nodes, in layout order, the root first
+     * @param nodes  left, right, leftCt and count of each node, STRIDE ints per node
+     * @param size   number of elements, every copy counts
+     * @param height height of the tree
+     * @param label  Name of tree (for printing)
+     */
+    FrozenTree(Object[] keys, int[] nodes, int size, int height, String label) {
+        this.keys = keys;
+        this.nodes = nodes;
+        this.size = size;
+        this.height = height;
+        treeName = label;
+    }
+
+    /**
+     * @return number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return height of the tree, a single node has height 1
+     */
+    public int height() {
+        return height;
+    }
+
+    /** O(logn)
+     * Find an item in the tree.
+     *
+     * @param lookFor the item to search for.
+     * @return true if lookFor is found.
+     */
+    public boolean contains(E lookFor) {
+        int n = keys.length == 0 ? NIL : 0;
+        while (n != NIL) {
+            int compareResult = lookFor.compareTo(key(n));
+            if (compareResult < 0) n = nodes[n * STRIDE + LEFT];
+            else if (compareResult > 0) n = nodes[n * STRIDE + RIGHT];
+            else return true;
+        }
+        return false;
+    }
+
+    /** O(logn)
+     * Same descent as Tree.lca
+     *
+     * @param element1 element in tree
+     * @param element2 second element in tree
+     * @return least common ancestor of element1 and element2, null if the tree is empty
+     */
+    public E lca(E element1, E element2) {
+        if (keys.length == 0) return null;
+        boolean inOrder = element1.compareTo(element2) < 0;
+        E low = inOrder ? element1 : element2;
+        E high = inOrder ? element2 : element1;
+        int t = 0;
+        while (true) {
+            int compare1 = key(t).compareTo(low);
+            int compare2 = key(t).compareTo(high);
+            int left = nodes[t * STRIDE + LEFT];
+            int right = nodes[t * STRIDE + RIGHT];
+            if (compare1 > 0 && compare2 > 0 && left != NIL) t = left;
+            else if (compare1 < 0 && compare2 < 0 && right != NIL) t = right;
+            else return key(t);
+        }
+    }
+
+    /** O(logn)
+     * @param k the ordinal number of the element desired (1 is the smallest)
+     * @return the kth smallest element, null if k is not between 1 and size()
+     */
+    public E select(int k) {
+        if (k < 1 || k > size) return null;
+        int t = 0;
+        while (true) {
+            int leftCount = nodes[t * STRIDE + LEFT_CT];
+            int count = nodes[t * STRIDE + COUNT];
+            if (k <= leftCount) {
+                t = nodes[t * STRIDE + LEFT];
+            } else if (k > leftCount + count) {
+                k -= leftCount + count;
+                t = nodes[t * STRIDE + RIGHT];
+            } else {
+                return key(t);
+            }
+        }
+    }
+
+    /** O(logn)
+     * @param n the ordinal number of the node desired
+     * @return the string representing the nth element, "None" if there is no nth element
+     */
+    public String findNthInOrder(int n) {
+        E nth = select(n);
+        if (nth == null) return "None";
+        else return nth.toString();
+    }
+
+    /** O(logn)
+     * @param element element to rank, need not be in the tree
+     * @return number of elements smaller than element
+     */
+    public int rank(E element) {
+        return countBelow(element, false);
+    }
+
+    /** O(logn)
+     * @param lo smallest element of the range
+     * @param hi largest element of the range
+     * @return number of elements e with lo <= e <= hi
+     */
+    public int rangeCount(E lo, E hi) {
+        if (lo.compareTo(hi) > 0) return 0;
+        return countBelow(hi, true) - countBelow(lo, false);
+    }
+
+    /** O(logn)
+     * @param bound     element to compare against
+     * @param inclusive true to also count elements equal to bound
+     * @return number of elements smaller than (or equal to) bound
+     */
+    private int countBelow(E bound, boolean inclusive) {
+        int count = 0;
+        int n = keys.length == 0 ? NIL : 0;
+        while (n != NIL) {
+            int compareResult = key(n).compareTo(bound);
+            if (compareResult < 0 || (inclusive && compareResult == 0)) {
+                count += nodes[n * STRIDE + LEFT_CT] + nodes[n * STRIDE + COUNT];
+                n = nodes[n * STRIDE + RIGHT];
+            } else {
+                n = nodes[n * STRIDE + LEFT];
+            }
+        }
+        return count;
+    }
+
+    /** O(1)
+     * @param n node index
+     * @return element of node n
+     */
+    @SuppressWarnings("unchecked")
+    private E key(int n) {
+        return (E) keys[n];
+    }
+
+    public String toString() {
+        return treeName + " frozen, size " + size + ", height " + height;
+    }
+
+    private final Object[] keys;    // Element of each node, in van Emde Boas order
+    private final int[] nodes;      // Left child, right child, left count and copies of each node
+    private final int size;         // Number of elements
+    private final int height;       // Height of the tree
+    private final String treeName;  // Name of tree for printing
+}
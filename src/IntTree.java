@@ -0,0 +1,304 @@
+// Binary search tree of ints stored in parallel arrays
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+// Same tree as Tree<Integer>, but each node is an index into flat int arrays instead of a BinaryNode holding a boxed
+// Integer. A node is always added after its parent, so parent index < child index. That lets the whole tree queries
+// run as plain loops over the arrays, top down or bottom up, without recursion or a stack.
+public class IntTree {
+    private static final int NIL = -1;     // Index used for a missing child or parent
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Public method to create an empty tree
+     *
+     * @param label Name of tree (for printing)
+     */
+    public IntTree(String label) {
+        this(label, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create a bst tree from an array of elements, inserted in order
+     *
+     * @param elements items to add to the tree
+     * @param label    Name of tree (for printing)
+     */
+    public IntTree(int[] elements, String label) {
+        this(label, elements.length);
+        for (int element : elements) {
+            insert(element);
+        }
+    }
+
+    private IntTree(String label, int capacity) {
+        treeName = label;
+        capacity = Math.max(capacity, 1);
+        key = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        parent = new int[capacity];
+        leftCt = new int[capacity];
+        rightCt = new int[capacity];
+        depth = new int[capacity];
+    }
+
+    /** O(nlogn)
+     * Build a height balanced tree from elements in any order
+     *
+     * @param elements items to add to the tree
+     * @param label    Name of tree (for printing)
+     * @return the new tree
+     */
+    public static IntTree bulkLoad(int[] elements, String label) {
+        int[] sorted = elements.clone();
+        Arrays.sort(sorted);
+        IntTree tree = new IntTree(label, sorted.length);
+        tree.root = tree.buildBalanced(sorted, 0, sorted.length - 1, NIL);
+        return tree;
+    }
+
+    /** O(n)
+     * Build a perfectly balanced subtree from sorted[lo..hi], allocating nodes in preorder
+     * @return index of the root of the new subtree
+     */
+    private int buildBalanced(int[] sorted, int lo, int hi, int parentNode) {
+        if (lo > hi) return NIL;
+        int mid = (lo + hi) >>> 1;
+        int n = newNode(sorted[mid], parentNode);
+        leftCt[n] = mid - lo;
+        rightCt[n] = hi - mid;
+        left[n] = buildBalanced(sorted, lo, mid - 1, n);
+        right[n] = buildBalanced(sorted, mid + 1, hi, n);
+        return n;
+    }
+
+    /**
+     * @return number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /** O(logn)
+     * Insert into the bst tree. Ties go left, as in Tree.
+     *
+     * @param newElement the item to insert.
+     */
+    public void insert(int newElement) {
+        int parentNode = NIL;
+        int n = root;
+        boolean goLeft = false;
+        while (n != NIL) {
+            parentNode = n;
+            goLeft = newElement <= key[n];
+            if (goLeft) {
+                leftCt[n]++;
+                n = left[n];
+            } else {
+                rightCt[n]++;
+                n = right[n];
+            }
+        }
+
+        int leaf = newNode(newElement, parentNode);
+        if (parentNode == NIL) root = leaf;
+        else if (goLeft) left[parentNode] = leaf;
+        else right[parentNode] = leaf;
+    }
+
+    /**
+     * Append a leaf node to the arrays, growing them if needed
+     * @return index of the new node
+     */
+    private int newNode(int element, int parentNode) {
+        if (size == key.length) {
+            int capacity = size + (size >> 1) + 1;
+            key = Arrays.copyOf(key, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            leftCt = Arrays.copyOf(leftCt, capacity);
+            rightCt = Arrays.copyOf(rightCt, capacity);
+            depth = Arrays.copyOf(depth, capacity);
+        }
+        int n = size++;
+        key[n] = element;
+        left[n] = NIL;
+        right[n] = NIL;
+        parent[n] = parentNode;
+        leftCt[n] = 0;
+        rightCt[n] = 0;
+        depth[n] = parentNode == NIL ? 0 : depth[parentNode] + 1;
+        return n;
+    }
+
+    /** O(logn)
+     * Find an item in the tree.
+     *
+     * @param lookFor the item to search for.
+     * @return true if lookFor is found.
+     */
+    public boolean contains(int lookFor) {
+        int n = root;
+        while (n != NIL) {
+            if (lookFor < key[n]) n = left[n];
+            else if (lookFor > key[n]) n = right[n];
+            else return true;
+        }
+        return false;
+    }
+
+    /** O(logn)
+     * @param element1 element in tree
+     * @param element2 second element in tree
+     * @return least common ancestor of element1 and element2
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public int lca(int element1, int element2) {
+        if (root == NIL) throw new NoSuchElementException(treeName + " Empty tree");
+        int low = Math.min(element1, element2);
+        int high = Math.max(element1, element2);
+        int t = root;
+        while (true) {
+            if (key[t] > high && left[t] != NIL) t = left[t];
+            else if (key[t] < low && right[t] != NIL) t = right[t];
+            else return key[t];
+        }
+    }
+
+    /** O(logn)
+     * @param n the ordinal number of the node desired (1 is the smallest)
+     * @return the nth smallest element
+     * @throws NoSuchElementException if n is not between 1 and size()
+     */
+    public int findNthInOrder(int n) {
+        if (n < 1 || n > size) throw new NoSuchElementException(treeName + " has no element " + n);
+        int t = root;
+        while (n != leftCt[t] + 1) {
+            if (n <= leftCt[t]) {
+                t = left[t];
+            } else {
+                n -= leftCt[t] + 1;
+                t = right[t];
+            }
+        }
+        return key[t];
+    }
+
+    /** O(n)
+     * @param level in tree (root starts at 0)
+     * @return number of nodes at level
+     */
+    public int nodesInLevel(int level) {
+        int nodeLevelSum = 0;
+        for (int n = 0; n < size; n++) {
+            if (depth[n] == level) nodeLevelSum++;
+        }
+        return nodeLevelSum;
+    }
+
+    /** O(n)
+     * Count leaf nodes
+     * @return number of leaf nodes
+     */
+    public int countFringe() {
+        int leafCount = 0;
+        for (int n = 0; n < size; n++) {
+            if (left[n] == NIL && right[n] == NIL) leafCount++;
+        }
+        return leafCount;
+    }
+
+    /** O(n)
+     * Return the tree's width, working out every node's height on the way in a scratch array.
+     * Children always have higher indexes than their parent, so one pass from the end finishes every child
+     * before its parent.
+     *
+     * @return width of the tree
+     */
+    public int width() {
+        int[] height = new int[size]; //only read here, so not worth keeping current on every insert
+        int widest = 0;
+        for (int n = size - 1; n >= 0; n--) {
+            int leftHeight = left[n] == NIL ? 0 : height[left[n]];
+            int rightHeight = right[n] == NIL ? 0 : height[right[n]];
+            height[n] = Math.max(leftHeight, rightHeight) + 1;
+            widest = Math.max(widest, leftHeight + rightHeight + 1);
+        }
+        return widest;
+    }
+
+    /** O(n)
+     * Return a string displaying the tree contents as a single line
+     */
+    public String listTree() {
+        if (root == NIL) return treeName + " Empty tree";
+        StringBuilder sb = new StringBuilder(treeName).append(" ");
+        //inorder walk back up through parent links
+        int n = root;
+        while (left[n] != NIL) n = left[n];
+        while (n != NIL) {
+            sb.append(key[n]).append(" ");
+            if (right[n] != NIL) {
+                n = right[n];
+                while (left[n] != NIL) n = left[n];
+            } else {
+                int child = n;
+                n = parent[n];
+                while (n != NIL && right[n] == child) {
+                    child = n;
+                    n = parent[n];
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /** O(n)
+     * Write the tree in the node array format that MappedIntTree.open serves without loading it
+     *
+     * @param file file to write, replaced if it exists
+     * @throws IOException if the file can't be written
+     */
+    public void save(Path file) throws IOException {
+        if (size > MappedIntTree.MAX_NODES) {
+            throw new IllegalStateException(treeName + " is too large for a tree file");
+        }
+        int treeHeight = 0;
+        for (int n = 0; n < size; n++) {
+            treeHeight = Math.max(treeHeight, depth[n] + 1);
+        }
+
+        long fileBytes = MappedIntTree.HEADER_BYTES + (long) size * MappedIntTree.NODE_BYTES;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(MappedIntTree.MAGIC).putInt(MappedIntTree.VERSION);
+            out.putInt(size).putInt(root).putInt(treeHeight);
+            for (int n = 0; n < size; n++) {
+                out.putInt(key[n]).putInt(left[n]).putInt(right[n]).putInt(leftCt[n]).putInt(rightCt[n]);
+            }
+            out.force();
+        }
+    }
+
+    private int[] key;      // The data in each node
+    private int[] left;     // Left child of each node
+    private int[] right;    // Right child of each node
+    private int[] parent;   // Parent of each node
+    private int[] leftCt;   // Count of nodes in left subtree
+    private int[] rightCt;  // Count of nodes in right subtree
+    private int[] depth;    // Depth of each node (root is 0)
+    private int size;       // Number of nodes in use
+    private int root = NIL; // Index of root of tree
+    private String treeName; // Name of tree for printing
+}
@@ -0,0 +1,202 @@
+// Read only IntTree served straight from a memory mapped file
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+
+// File layout (little endian ints):
+//   header: MAGIC, VERSION, size, root, height
+//   nodes:  size fixed width records of key, left, right, leftCt, rightCt
+// Children are node numbers (NIL for none), so node n lives at HEADER_BYTES + n * NODE_BYTES.
+// Opening a file maps it and reads the header, nothing is deserialized. The mapping is shared through the page cache,
+// so several processes can serve the same file.
+public class MappedIntTree {
+    static final int MAGIC = 0x49545245;  // "ITRE"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 5 * Integer.BYTES;
+    static final int NODE_BYTES = 5 * Integer.BYTES;
+    static final int NIL = -1;
+    static final int MAX_NODES = (Integer.MAX_VALUE - HEADER_BYTES) / NODE_BYTES;
+
+    private static final int KEY = 0;
+    private static final int LEFT = Integer.BYTES;
+    private static final int RIGHT = 2 * Integer.BYTES;
+    private static final int LEFT_CT = 3 * Integer.BYTES;
+    private static final int RIGHT_CT = 4 * Integer.BYTES;
+
+    private MappedIntTree(MappedByteBuffer buffer, String label) {
+        this.buffer = buffer;
+        treeName = label;
+        size = buffer.getInt(2 * Integer.BYTES);
+        root = buffer.getInt(3 * Integer.BYTES);
+        height = buffer.getInt(4 * Integer.BYTES);
+    }
+
+    /** O(1)
+     * Map a tree file written by IntTree.save
+     *
+     * @param file  file to open
+     * @param label Name of tree (for printing)
+     * @return the mapped tree
+     * @throws IOException if the file can't be mapped or isn't a tree file
+     */
+    public static MappedIntTree open(Path file, String label) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) throw new IOException(file + " is not a tree file");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException(file + " is not a tree file");
+        }
+        MappedIntTree tree = new MappedIntTree(buffer, label);
+        if ((long) HEADER_BYTES + (long) tree.size * NODE_BYTES > buffer.capacity()) {
+            throw new IOException(file + " is truncated");
+        }
+        return tree;
+    }
+
+    /**
+     * @return number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /** O(logn)
+     * Find an item in the tree.
+     *
+     * @param lookFor the item to search for.
+     * @return true if lookFor is found.
+     */
+    public boolean contains(int lookFor) {
+        int n = root;
+        while (n != NIL) {
+            int element = field(n, KEY);
+            if (lookFor < element) n = field(n, LEFT);
+            else if (lookFor > element) n = field(n, RIGHT);
+            else return true;
+        }
+        return false;
+    }
+
+    /** O(logn)
+     * @param element1 element in tree
+     * @param element2 second element in tree
+     * @return least common ancestor of element1 and element2
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public int lca(int element1, int element2) {
+        if (root == NIL) throw new NoSuchElementException(treeName + " Empty tree");
+        int low = Math.min(element1, element2);
+        int high = Math.max(element1, element2);
+        int t = root;
+        while (true) {
+            int element = field(t, KEY);
+            if (element > high && field(t, LEFT) != NIL) t = field(t, LEFT);
+            else if (element < low && field(t, RIGHT) != NIL) t = field(t, RIGHT);
+            else return element;
+        }
+    }
+
+    /** O(logn)
+     * @param n the ordinal number of the node desired (1 is the smallest)
+     * @return the nth smallest element
+     * @throws NoSuchElementException if n is not between 1 and size()
+     */
+    public int findNthInOrder(int n) {
+        if (n < 1 || n > size) throw new NoSuchElementException(treeName + " has no element " + n);
+        int t = root;
+        int leftCount;
+        while (n != (leftCount = field(t, LEFT_CT)) + 1) {
+            if (n <= leftCount) {
+                t = field(t, LEFT);
+            } else {
+                n -= leftCount + 1;
+                t = field(t, RIGHT);
+            }
+        }
+        return field(t, KEY);
+    }
+
+    /** O(logn)
+     * @param lo smallest element of the range
+     * @param hi largest element of the range
+     * @return number of elements e with lo <= e <= hi
+     */
+    public int rangeCount(int lo, int hi) {
+        if (lo > hi) return 0;
+        return countBelow(hi, true) - countBelow(lo, false);
+    }
+
+    /** O(logn)
+     * @param bound     element to compare against
+     * @param inclusive true to also count elements equal to bound
+     * @return number of elements smaller than (or equal to) bound
+     */
+    private int countBelow(int bound, boolean inclusive) {
+        int count = 0;
+        int n = root;
+        while (n != NIL) {
+            int element = field(n, KEY);
+            if (element < bound || (inclusive && element == bound)) {
+                count += field(n, LEFT_CT) + 1;
+                n = field(n, RIGHT);
+            } else {
+                n = field(n, LEFT);
+            }
+        }
+        return count;
+    }
+
+    /** O(logn + k)
+     * Inorder walk that only enters subtrees which can hold elements of the range
+     *
+     * @param lo smallest element of the range
+     * @param hi largest element of the range
+     * @return elements e with lo <= e <= hi, in order
+     */
+    public int[] range(int lo, int hi) {
+        int[] found = new int[rangeCount(lo, hi)];
+        int foundCt = 0;
+        int[] stack = new int[height];
+        int top = 0;
+        int n = root;
+        while (foundCt < found.length) {
+            if (n != NIL) {
+                if (field(n, KEY) < lo) {
+                    n = field(n, RIGHT); //n and everything left of it is below the range
+                } else {
+                    stack[top++] = n;
+                    n = field(n, LEFT);
+                }
+            } else {
+                n = stack[--top];
+                found[foundCt++] = field(n, KEY);
+                n = field(n, RIGHT);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Read one field of a node record
+     * @param n      node number
+     * @param offset offset of the field in the record
+     * @return value of the field
+     */
+    private int field(int n, int offset) {
+        return buffer.getInt(HEADER_BYTES + n * NODE_BYTES + offset);
+    }
+
+    private final MappedByteBuffer buffer;  // Mapped contents of the file
+    private final int size;       // Number of nodes
+    private final int root;       // Node number of root of tree
+    private final int height;     // Height of tree, enough stack for any walk
+    private final String treeName;  // Name of tree for printing
+}
@@ -1,12 +1,32 @@
 
 // BinarySearchTree class
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.invoke.VarHandle;
 import java.util.Random;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 // In order to build a binary search tree, we need to declare the contents as Comparable.
 public class Tree<E extends Comparable<? super E>> {
     final static String END_LINE = "\n";
+    final static int PARALLEL_THRESHOLD = 1 << 13;  // Subtrees this small are walked on one thread
+    private final static long NULL_SHAPE = 0x9E3779B97F4A7C15L;  // Shape fingerprint of an empty subtree
+    private final static long LEAF_SHAPE = combineShapes(NULL_SHAPE, NULL_SHAPE);  // Shape fingerprint of a leaf
+    private final static long NO_SNAPSHOT = Long.MAX_VALUE;  // pinnedEpoch while no snapshot is open
+    private final static int MERGE = 0;         // Operations of combine
+    private final static int UNION = 1;
+    private final static int INTERSECTION = 2;
+    private final static int DIFFERENCE = 3;
+    private final static int DONE_SPLITTING = -1;  // Part of insertAll's stack entry for a node whose children are done
 
     /**
      * Public method to create an empty tree
@@ -14,9 +34,31 @@ public class Tree<E extends Comparable<? super E>> {
      * @param label Name of tree (for printing)
      */
     public Tree(String label) {
+        this(label, false);
+    }
+
+    /**
+     * Public method to create an empty tree
+     *
+     * @param label    Name of tree (for printing)
+     * @param balanced true to keep the tree height balanced (AVL) as elements are inserted
+     */
+    public Tree(String label, boolean balanced) {
+        this(label, balanced, false);
+    }
+
+    /**
+     * Public method to create an empty tree
+     *
+     * @param label    Name of tree (for printing)
+     * @param balanced true to keep the tree height balanced (AVL) as elements are inserted
+     * @param multiset true to keep one node per distinct element with a count, instead of a node per copy
+     */
+    public Tree(String label, boolean balanced, boolean multiset) {
         treeName = label;
         root = null;
-        currentNode = null;
+        this.balanced = balanced;
+        this.multiset = multiset;
     }
 
     /**
@@ -26,13 +68,262 @@ public class Tree<E extends Comparable<? super E>> {
      * @param label       Name of tree (for printing)
      */
     public Tree(ArrayList<E> elementList, String label) {
+        this(elementList, label, false);
+    }
+
+    /**
+     * Create a bst tree from ArrayList of elements
+     *
+     * @param elementList list of items to add to the tree
+     * @param label       Name of tree (for printing)
+     * @param balanced    true to keep the tree height balanced (AVL) as elements are inserted
+     */
+    public Tree(ArrayList<E> elementList, String label, boolean balanced) {
+        this(elementList, label, balanced, false);
+    }
+
+    /**
+     * Create a bst tree from ArrayList of elements
+     *
+     * @param elementList list of items to add to the tree
+     * @param label       Name of tree (for printing)
+     * @param balanced    true to keep the tree height balanced (AVL) as elements are inserted
+     * @param multiset    true to keep one node per distinct element with a count, instead of a node per copy
+     */
+    public Tree(ArrayList<E> elementList, String label, boolean balanced, boolean multiset) {
         root = null;
         treeName = label;
+        this.balanced = balanced;
+        this.multiset = multiset;
         for (int i = 0; i < elementList.size(); i++) {
             insert(elementList.get(i));
         }
     }
 
+    /** O(nlogn), O(n) if elements are already sorted
+     * Build a height balanced tree from elements in any order.
+     * Sorts once, then builds the tree bottom up from the sorted array instead of inserting one at a time.
+     * The tree is created in balanced mode so later inserts keep it balanced.
+     *
+     * @param elements items to add to the tree
+     * @param label    Name of tree (for printing)
+     * @return the new tree
+     */
+    public static <E extends Comparable<? super E>> Tree<E> bulkLoad(Collection<? extends E> elements, String label) {
+        Object[] sorted = elements.toArray();
+        Arrays.sort(sorted);
+        Tree<E> tree = new Tree<>(label, true);
+        tree.root = tree.buildBalanced(sorted, null, 0, sorted.length - 1, null);
+        return tree;
+    }
+
+    /** O(nlogn)
+     * Build a height balanced tree from an array of ints in any order.
+     *
+     * @param elements items to add to the tree
+     * @param label    Name of tree (for printing)
+     * @return the new tree
+     */
+    public static Tree<Integer> bulkLoad(int[] elements, String label) {
+        int[] sortedInts = elements.clone();
+        Arrays.sort(sortedInts);
+        Integer[] sorted = new Integer[sortedInts.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = sortedInts[i];
+        }
+        Tree<Integer> tree = new Tree<>(label, true);
+        tree.root = tree.buildBalanced(sorted, null, 0, sorted.length - 1, null);
+        return tree;
+    }
+
+    /** O(n)
+     * Build a perfectly balanced subtree from sorted[lo..hi].
+     * The middle element becomes the root, and counts and height are filled in once both children are built.
+     *
+     * @param sorted elements (of type E) in sorted order
+     * @param counts copies of each element, null if there is one of each
+     * @param lo     first index of the subtree
+     * @param hi     last index of the subtree
+     * @param parent parent of the new subtree
+     * @return root of the new subtree
+     */
+    @SuppressWarnings("unchecked")
+    private BinaryNode<E> buildBalanced(Object[] sorted, int[] counts, int lo, int hi, BinaryNode<E> parent) {
+        if (lo > hi) return null;
+        int mid = (lo + hi) >>> 1;
+        BinaryNode<E> n = new BinaryNode<>((E) sorted[mid], null, null, parent, 0, 0);
+        if (epoch != 0) n.stamp = epoch; //no snapshot can reach it
+        if (counts != null) n.count = counts[mid];
+        n.left = buildBalanced(sorted, counts, lo, mid - 1, n);
+        n.right = buildBalanced(sorted, counts, mid + 1, hi, n);
+        n.leftCt = size(n.left);
+        n.rightCt = size(n.right);
+        updateStats(n);
+        return n;
+    }
+
+    /** O(n + m)
+     * @param other second tree
+     * @param label Name of the new tree (for printing)
+     * @return balanced tree of the elements of both trees, duplicates included (as counts in multiset mode)
+     */
+    public Tree<E> merge(Tree<E> other, String label) {
+        return combine(other, MERGE, label);
+    }
+
+    /** O(n + m)
+     * @param other second tree
+     * @param label Name of the new tree (for printing)
+     * @return balanced tree of the elements in either tree, each once
+     */
+    public Tree<E> union(Tree<E> other, String label) {
+        return combine(other, UNION, label);
+    }
+
+    /** O(n + m)
+     * @param other second tree
+     * @param label Name of the new tree (for printing)
+     * @return balanced tree of the elements in both trees, each once
+     */
+    public Tree<E> intersection(Tree<E> other, String label) {
+        return combine(other, INTERSECTION, label);
+    }
+
+    /** O(n + m)
+     * @param other second tree
+     * @param label Name of the new tree (for printing)
+     * @return balanced tree of the elements in this tree but not in other, each once
+     */
+    public Tree<E> difference(Tree<E> other, String label) {
+        return combine(other, DIFFERENCE, label);
+    }
+
+    /** O(n + m)
+     * Walk both trees in order side by side, like the merge step of merge sort, collecting the result in a sorted
+     * array, then build a balanced tree from it. Neither tree is changed.
+     *
+     * @param other     second tree
+     * @param operation MERGE, UNION, INTERSECTION or DIFFERENCE
+     * @param label     Name of the new tree (for printing)
+     * @return the new tree, in balanced mode and in this tree's multiset mode
+     */
+    @SuppressWarnings("unchecked")
+    private Tree<E> combine(Tree<E> other, int operation, String label) {
+        Object[] sorted = new Object[size(root) + size(other.root)];
+        int[] counts = new int[sorted.length];
+        int count = 0;
+        BinaryNode<E> a = first(root);
+        BinaryNode<E> b = first(other.root);
+        while (a != null || b != null) {
+            int compareResult = a == null ? 1 : b == null ? -1 : a.element.compareTo(b.element);
+            if (operation == MERGE) {
+                BinaryNode<E> next = compareResult <= 0 ? a : b;
+                if (compareResult <= 0) a = successor(a);
+                else b = successor(b);
+                if (multiset && count > 0 && next.element.compareTo((E) sorted[count - 1]) == 0) {
+                    counts[count - 1] += next.count; //another copy of the last element
+                } else if (multiset) {
+                    sorted[count] = next.element;
+                    counts[count++] = next.count;
+                } else {
+                    for (int copy = 0; copy < next.count; copy++) {
+                        sorted[count] = next.element;
+                        counts[count++] = 1;
+                    }
+                }
+                continue;
+            }
+            if (a == null && operation != UNION) break; //nothing left that intersection or difference can keep
+            if (b == null && operation == INTERSECTION) break;
+
+            E element = compareResult <= 0 ? a.element : b.element;
+            boolean inThis = compareResult <= 0;
+            boolean inOther = compareResult >= 0;
+            while (a != null && a.element.compareTo(element) == 0) a = successor(a); //skip duplicates on both sides
+            while (b != null && b.element.compareTo(element) == 0) b = successor(b);
+            if (operation == UNION
+                    || (operation == INTERSECTION && inThis && inOther)
+                    || (operation == DIFFERENCE && inThis && !inOther)) {
+                sorted[count] = element;
+                counts[count++] = 1;
+            }
+        }
+        Tree<E> tree = new Tree<>(label, true, multiset);
+        tree.root = tree.buildBalanced(sorted, counts, 0, count - 1, null);
+        return tree;
+    }
+
+    /** O(n)
+     * Replace the contents of the tree with the tree that has these traversals.
+     * The shape comes from the traversals exactly, so the elements need not be in search tree order.
+     * Built without recursion: preorder gives the nodes top down, and the inorder position of each one decides
+     * whether it is the left child of the node before it or the right child of some node on the stack.
+     *
+     * @param inorder  elements in inorder, all different
+     * @param preorder the same elements in preorder
+     * @param label    Name of tree (for printing)
+     * @throws IllegalArgumentException if the arrays are not two traversals of one tree
+     */
+    public void buildTreeTraversals(E[] inorder, E[] preorder, String label) {
+        if (inorder.length != preorder.length) {
+            throw new IllegalArgumentException(label + " traversals have different lengths");
+        }
+        HashMap<E, Integer> inorderIndex = new HashMap<>(inorder.length * 2);
+        for (int i = 0; i < inorder.length; i++) {
+            if (inorderIndex.put(inorder[i], i) != null) {
+                throw new IllegalArgumentException(label + " has " + inorder[i] + " twice");
+            }
+        }
+        int[] position = new int[preorder.length]; //inorder index of each preorder element
+        for (int i = 0; i < preorder.length; i++) {
+            Integer index = inorderIndex.get(preorder[i]);
+            if (index == null) throw new IllegalArgumentException(label + " preorder has " + preorder[i] + " only");
+            position[i] = index;
+        }
+
+        BinaryNode<E> newRoot = null;
+        ArrayDeque<BinaryNode<E>> stack = new ArrayDeque<>();
+        int[] stackPosition = new int[preorder.length]; //inorder index of each node on the stack
+        for (int i = 0; i < preorder.length; i++) {
+            BinaryNode<E> n = new BinaryNode<>(preorder[i], null, null, null, 0, 0);
+            if (epoch != 0) n.stamp = epoch; //no snapshot can reach it
+            BinaryNode<E> parent = null;
+            //pop the nodes that n comes after in inorder, n is the right child of the last one
+            while (!stack.isEmpty() && stackPosition[stack.size() - 1] < position[i]) {
+                parent = stack.pop();
+            }
+            if (parent != null) {
+                parent.right = n;
+            } else if (!stack.isEmpty()) {
+                parent = stack.peek();
+                parent.left = n;
+            } else {
+                newRoot = n;
+            }
+            n.parent = parent;
+            stackPosition[stack.size()] = position[i];
+            stack.push(n);
+        }
+
+        //counts and stats bottom up, checking that the inorder of the result is really inorder
+        int visited = 0;
+        Walk<E> walk = new Walk<>(newRoot, false);
+        while (walk.next() != Walk.DONE) {
+            BinaryNode<E> n = walk.node;
+            if (walk.event == Walk.VISIT && !n.element.equals(inorder[visited++])) {
+                throw new IllegalArgumentException(label + " traversals don't match any tree");
+            } else if (walk.event == Walk.EXIT) {
+                n.leftCt = size(n.left);
+                n.rightCt = size(n.right);
+                updateStats(n);
+            }
+        }
+
+        root = newRoot;
+        treeName = label;
+        levelCounts = null;
+    }
+
     /**
      * Public method to count leaf nodes
      * @return number of leaf nodes
@@ -49,15 +340,14 @@ public class Tree<E extends Comparable<? super E>> {
      * @return the number of leaves from that node
      */
     private int countFringe(BinaryNode<E> n) {
-        if (n == null) {
-            return 0; // return base case of 0 if not a valid node
-        }
-
-        if (n.left == null && n.right == null){
-            return 1; //increase the count if it's a leaf
+        int leafCount = 0;
+        Walk<E> walk = new Walk<>(n, false);
+        while (walk.next() != Walk.DONE) {
+            if (walk.event == Walk.ENTER && walk.node.left == null && walk.node.right == null) {
+                leafCount += walk.node.count; //increase the count if it's a leaf, by every copy it holds
+            }
         }
-
-        return countFringe(n.left) + countFringe(n.right); // return the count from the right and left
+        return leafCount;
     }
 
     /**
@@ -66,6 +356,7 @@ public class Tree<E extends Comparable<? super E>> {
      * @return least common ancestor of element1 and element2
      */
     public E lca(E element1, E element2) {
+        if (root == null) return null;
         if (element1.compareTo(element2) < 0) return lca(root, element1, element2);
         return lca(root, element2, element1);
     }
@@ -78,333 +369,1982 @@ public class Tree<E extends Comparable<? super E>> {
      * @return the least common ancestor of nodes with values element1 and element2
      */
     private E lca(BinaryNode<E> t, E element1, E element2) {
+        TreeMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        int depth = 0;
+        while (true) {
+            depth++;
+            int compare1 = t.element.compareTo(element1); //compares t to element1
+            int compare2 = t.element.compareTo(element2); //compares t to element2
+
+            //keep descending while both are on the same side of t
+            if (compare1 > 0 && compare2 > 0 && t.left != null) {
+                t = t.left;
+            } else if (compare1 < 0 && compare2 < 0 && t.right != null) {
+                t = t.right;
+            } else {
+                if (m != null) m.record(TreeMetrics.LCA, start, depth, 2 * depth + 1); //+1 for ordering the pair
+                return t.element;
+            }
+        }
+    }
+
+    /** O(nlogn + m)
+     * Answer a batch of lca queries against the tree as it is now.
+     * results[i] is set to lca(first[i], second[i]).
+     *
+     * @param first   first element of each pair
+     * @param second  second element of each pair
+     * @param results array to fill, at least as long as first
+     */
+    public void lcaAll(E[] first, E[] second, E[] results) {
+        lcaIndex().lcaAll(first, second, results);
+    }
+
+    /** O(nlogn)
+     * Preprocess the tree for repeated lca queries. The index is a copy, so it stays valid (for the tree as it was
+     * when built) after the tree changes, and any number of threads can query it at once.
+     *
+     * @return lca index of the tree as it is now
+     */
+    public LcaIndex lcaIndex() {
+        return new LcaIndex();
+    }
+
+    /** O(n loglogn)
+     * Copy the tree into a read only FrozenTree with the same shape, laid out in van Emde Boas order.
+     * Later changes to this tree don't show in the copy.
+     *
+     * @return frozen copy of the tree as it is now
+     */
+    public FrozenTree<E> freeze() {
+        int size = nodeCount(root);
+        BinaryNode<?>[] order = new BinaryNode<?>[size];
+        if (root != null) layoutVanEmdeBoas(root, root.height, order, 0);
+
+        IdentityHashMap<BinaryNode<?>, Integer> index = new IdentityHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            index.put(order[i], i);
+        }
+        Object[] keys = new Object[size];
+        int[] nodes = new int[size * FrozenTree.STRIDE];
+        for (int i = 0; i < size; i++) {
+            BinaryNode<?> n = order[i];
+            keys[i] = n.element;
+            nodes[i * FrozenTree.STRIDE + FrozenTree.LEFT] = n.left == null ? FrozenTree.NIL : index.get(n.left);
+            nodes[i * FrozenTree.STRIDE + FrozenTree.RIGHT] = n.right == null ? FrozenTree.NIL : index.get(n.right);
+            nodes[i * FrozenTree.STRIDE + FrozenTree.LEFT_CT] = n.leftCt;
+            nodes[i * FrozenTree.STRIDE + FrozenTree.COUNT] = n.count;
+        }
+        return new FrozenTree<>(keys, nodes, size(root), getHeight(root), treeName);
+    }
+
+    /** O(1)
+     * Freeze the tree as it is now without copying it. Later changes copy the state of each node they touch
+     * before changing it, once per snapshot, so a change still costs O(logn) and the snapshot keeps seeing the old
+     * tree. Scans of the snapshot take no locks and can run on other threads while this tree keeps changing.
+     * Call this from the thread that changes the tree, and close the snapshot when done so the copies can be dropped.
+     *
+     * @return snapshot of the tree as it is now
+     */
+    public Snapshot snapshot() {
+        if (openSnapshots == null) openSnapshots = new ConcurrentSkipListMap<>();
+        Snapshot snapshot = new Snapshot(root, epoch);
+        openSnapshots.merge(epoch, 1, Integer::sum);
+        pinnedEpoch = Math.min(pinnedEpoch, epoch);
+        epoch++;
+        return snapshot;
+    }
+
+    /**
+     * Put the top levels of a subtree into order in van Emde Boas order: the upper half of the levels first, then
+     * each subtree hanging below them. Every node comes before its children.
+     * Each call halves the number of levels, so the recursion is only loglogn deep, even for a degenerate tree.
+     *
+     * @param top    root of the subtree
+     * @param levels number of levels of the subtree to lay out
+     * @param order  nodes in layout order, filled from next
+     * @param next   first free slot in order
+     * @return first free slot after the subtree
+     */
+    private static int layoutVanEmdeBoas(BinaryNode<?> top, int levels, BinaryNode<?>[] order, int next) {
+        levels = Math.min(levels, top.height);
+        if (levels == 1) {
+            order[next] = top;
+            return next + 1;
+        }
+        int topLevels = levels / 2;
+        next = layoutVanEmdeBoas(top, topLevels, order, next);
+        Walk<?> walk = new Walk<>(top, false);
+        while (walk.next() != Walk.DONE) {
+            if (walk.event == Walk.ENTER && walk.depth == topLevels) { //root of a bottom subtree
+                walk.skipChildren();
+                next = layoutVanEmdeBoas(walk.node, levels - topLevels, order, next);
+            }
+        }
+        return next;
+    }
+
+    /** O(logn)
+     * Open a cursor just before the smallest element that is at least key.
+     * next() then returns that element and previous() returns its predecessor.
+     * Each cursor keeps its own position, so any number of scans can run over the same tree.
+     *
+     * @param key where to start
+     * @return cursor positioned before the first element >= key
+     */
+    public Cursor seek(E key) {
+        BinaryNode<E> ceiling = ceiling(key);
+        return new Cursor(ceiling == null ? last(root) : predecessor(ceiling), ceiling);
+    }
+
+    /** O(logn)
+     * Lazy scan of the elements in [lo, hi]. Only nodes inside the range are visited, one per step.
+     *
+     * @param lo smallest element of the range
+     * @param hi largest element of the range
+     * @return cursor positioned before lo that stops after hi, and won't step back before lo
+     */
+    public Cursor range(E lo, E hi) {
+        BinaryNode<E> ceiling = ceiling(lo);
+        return new Cursor(ceiling == null ? last(root) : predecessor(ceiling), ceiling, lo, hi);
+    }
+
+    /** O(logn)
+     * @param lo smallest element of the range
+     * @param hi largest element of the range
+     * @return number of elements e with lo <= e <= hi
+     */
+    public int rangeCount(E lo, E hi) {
+        if (lo.compareTo(hi) > 0) return 0;
+        return countBelow(hi, true) - countBelow(lo, false);
+    }
+
+    /** O(logn)
+     * @param element element to rank, need not be in the tree
+     * @return number of elements smaller than element, so findNthInOrder(rank(e) + 1) is e when e is in the tree
+     */
+    public int rank(E element) {
+        return countBelow(element, false);
+    }
+
+    /** O(logn)
+     * Add up the subtree counts of everything left of the search path for bound
+     * @param bound     element to compare against
+     * @param inclusive true to also count elements equal to bound
+     * @return number of elements smaller than (or equal to) bound
+     */
+    private int countBelow(E bound, boolean inclusive) {
+        TreeMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        int depth = 0;
+        int count = 0;
+        BinaryNode<E> n = root;
+        while (n != null) {
+            depth++;
+            int compareResult = n.element.compareTo(bound);
+            if (compareResult < 0 || (inclusive && compareResult == 0)) {
+                count += n.leftCt + n.count; //n and its whole left subtree are below bound
+                n = n.right;
+            } else {
+                n = n.left;
+            }
+        }
+        if (m != null) m.record(TreeMetrics.RANK, start, depth, depth);
+        return count;
+    }
+
+    /** O(logn)
+     * @param key element to look for
+     * @return node with the smallest element >= key, null if there is none
+     */
+    private BinaryNode<E> ceiling(E key) {
+        BinaryNode<E> ceiling = null;
+        BinaryNode<E> n = root;
+        while (n != null) {
+            if (n.element.compareTo(key) >= 0) {
+                ceiling = n;
+                n = n.left;
+            } else {
+                n = n.right;
+            }
+        }
+        return ceiling;
+    }
+
+    /** O(logn)
+     * @return cursor positioned before the smallest element
+     */
+    public Cursor first() {
+        return new Cursor(null, first(root));
+    }
+
+    /** O(logn)
+     * @return cursor positioned after the largest element
+     */
+    public Cursor last() {
+        return new Cursor(last(root), null);
+    }
+
+    /**
+     * Insert into the bst tree;
+     * Counts the new item into leftCt/rightCt of every node on the way down, then hangs it as a new leaf.
+     * In multiset mode an item already in the tree only adds to the count of its node.
+     *
+     * @param newElement the item to insert.
+     */
+    public void insert(E newElement) {
+        TreeMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        pinSnapshots();
+        BinaryNode<E> parent = null;
+        BinaryNode<E> n = root;
+        boolean goLeft = false;
+        int depth = 0;
+        while (n != null) {
+            depth++;
+            parent = n;
+            preserve(n);
+            int compareResult = newElement.compareTo(n.element);
+            if (multiset && compareResult == 0) {
+                n.count++; //the counts above already include it
+                if (m != null) m.record(TreeMetrics.INSERT, start, depth, depth);
+                return;
+            }
+            goLeft = compareResult <= 0;
+            if (goLeft) {
+                n.leftCt++; //add to the left tree count to account if it goes to left
+                n = n.left;
+            } else {
+                n.rightCt++; //add to right tree count, accounts for new node going right
+                n = n.right;
+            }
+        }
+
+        BinaryNode<E> leaf = new BinaryNode<>(newElement, null, null, parent, 0, 0);
+        if (epoch != 0) leaf.stamp = epoch; //no snapshot can reach it
+        if (parent == null) root = leaf;
+        else if (goLeft) parent.left = leaf;
+        else parent.right = leaf;
+        countLevel(depth, 1); //adding a leaf moves no other node
+        if (balanced) rebalanceToRoot(parent);
+        else updateToRoot(parent);
+        if (m != null) m.record(TreeMetrics.INSERT, start, depth, depth);
+    }
+
+    /** O(k logk + k log(n/k)) for k new elements, O(k logk + n) once the batch is big next to the tree
+     * Insert a batch of elements. The batch is sorted, then split down the tree in one pass: each node takes the
+     * part of the batch that falls under it, adds it to its counts and hands each side on to that child. Where the
+     * child is missing, the whole side is hung there as a balanced subtree. Then the nodes the batch passed
+     * through are updated (and rebalanced in balanced mode) from the bottom up, each once, so no element descends
+     * from the root on its own. Nodes near the top are shared by the whole batch; a small batch spread over a big
+     * tree still reaches most of the lower nodes one element at a time, and costs about as much as inserting it.
+     * Once k logn passes n + k the batch is merged with the tree in one in order pass instead, and the tree is
+     * rebuilt balanced from the result.
+     * Open snapshots are unaffected.
+     *
+     * @param elements items to add, any order
+     */
+    public void insertAll(Collection<? extends E> elements) {
+        Object[] sorted = elements.toArray();
+        if (sorted.length == 0) return;
+        Arrays.sort(sorted);
+        int size = size(root);
+        int log = 32 - Integer.numberOfLeadingZeros(size);
+        if ((long) sorted.length * log >= (long) size + sorted.length) {
+            Tree<E> batch = new Tree<>(treeName, true);
+            batch.root = batch.buildBalanced(sorted, null, 0, sorted.length - 1, null);
+            root = combine(batch, MERGE, treeName).root;
+            levelCounts = null;
+            return;
+        }
+        pinSnapshots();
+        levelCounts = null; //hung subtrees add nodes on many levels
+        if (root == null) {
+            root = hang(sorted, 0, sorted.length - 1, null);
+            return;
+        }
+
+        //depth first: a node is pushed with its part of the batch, then again with DONE_SPLITTING under its children
+        //so it is updated right after them, while its path is still in cache
+        ArrayDeque<BinaryNode<E>> pending = new ArrayDeque<>();
+        int[] parts = new int[64]; //lo and hi of sorted still to split under each pending node
+        int partCt = 0;
+        pending.push(root);
+        parts[partCt++] = 0;
+        parts[partCt++] = sorted.length - 1;
+        while (!pending.isEmpty()) {
+            BinaryNode<E> n = pending.pop();
+            int hi = parts[--partCt];
+            int lo = parts[--partCt];
+            if (lo == DONE_SPLITTING) {
+                fixAfterInsertAll(n);
+                continue;
+            }
+            preserve(n);
+            int leftEnd = boundary(sorted, lo, hi, n.element, !multiset); //ties go left, or stay in n as copies
+            int rightStart = multiset ? boundary(sorted, leftEnd, hi, n.element, true) : leftEnd;
+            n.count += rightStart - leftEnd;
+            n.leftCt += leftEnd - lo;
+            n.rightCt += hi + 1 - rightStart;
+            if (partCt + 6 > parts.length) parts = Arrays.copyOf(parts, 2 * parts.length);
+            pending.push(n);
+            parts[partCt++] = DONE_SPLITTING;
+            parts[partCt++] = DONE_SPLITTING;
+            if (rightStart <= hi) {
+                if (n.right == null) {
+                    n.right = hang(sorted, rightStart, hi, n);
+                } else {
+                    pending.push(n.right);
+                    parts[partCt++] = rightStart;
+                    parts[partCt++] = hi;
+                }
+            }
+            if (leftEnd > lo) {
+                if (n.left == null) {
+                    n.left = hang(sorted, lo, leftEnd - 1, n);
+                } else {
+                    pending.push(n.left);
+                    parts[partCt++] = lo;
+                    parts[partCt++] = leftEnd - 1;
+                }
+            }
+        }
+    }
+
+    /** O(1), O(size of n) if a subtree hung below n is much taller than its sibling
+     * Update a node insertAll went through, once everything below it is done, and rebalance it in balanced mode
+     * @param n node to update
+     */
+    private void fixAfterInsertAll(BinaryNode<E> n) {
+        if (!balanced) {
+            updateStats(n);
+            return;
+        }
+        BinaryNode<E> parent = n.parent;
+        //a hung subtree can be much taller than its sibling, more than rotations can even out
+        boolean lopsided = Math.abs(getHeight(n.left) - getHeight(n.right)) > 2;
+        BinaryNode<E> subtreeRoot = lopsided ? rebuild(n) : rebalance(n);
+        if (subtreeRoot == n) return;
+        if (parent == null) {
+            root = subtreeRoot;
+        } else {
+            preserve(parent);
+            if (parent.left == n) parent.left = subtreeRoot;
+            else parent.right = subtreeRoot;
+        }
+    }
+
+    /** O(logk)
+     * @param sorted    elements (of type E) in sorted order
+     * @param lo        first index to search
+     * @param hi        last index to search
+     * @param bound     element to compare against
+     * @param inclusive true to also skip elements equal to bound
+     * @return first index in lo..hi + 1 whose element is above bound (or equal to it, if not inclusive)
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Comparable<? super E>> int boundary(Object[] sorted, int lo, int hi, E bound,
+                                                                  boolean inclusive) {
+        hi++;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int compareResult = ((E) sorted[mid]).compareTo(bound);
+            if (compareResult < 0 || (inclusive && compareResult == 0)) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** O(k)
+     * Build a balanced subtree from sorted[lo..hi], equal elements becoming copies of one node in multiset mode
+     * @param parent parent of the new subtree
+     * @return root of the new subtree
+     */
+    private BinaryNode<E> hang(Object[] sorted, int lo, int hi, BinaryNode<E> parent) {
+        if (!multiset) return buildBalanced(sorted, null, lo, hi, parent);
+        Object[] distinct = new Object[hi - lo + 1];
+        int[] counts = new int[distinct.length];
+        int distinctCt = 0;
+        for (int i = lo; i <= hi; i++) {
+            if (distinctCt > 0 && sorted[i].equals(distinct[distinctCt - 1])) counts[distinctCt - 1]++;
+            else {
+                distinct[distinctCt] = sorted[i];
+                counts[distinctCt++] = 1;
+            }
+        }
+        return buildBalanced(distinct, counts, 0, distinctCt - 1, parent);
+    }
+
+    /** O(n)
+     * Replace a subtree with a perfectly balanced one holding the same elements. The old nodes are left as they
+     * are, so snapshots that reach them still see them.
+     * @param n root of the subtree
+     * @return root of the new subtree (parent link set, caller relinks it)
+     */
+    private BinaryNode<E> rebuild(BinaryNode<E> n) {
+        Object[] inorder = new Object[size(n)]; //room for every copy, only one slot per node is used
+        int[] counts = new int[inorder.length];
+        int nodes = 0;
+        Walk<E> walk = new Walk<>(n, false);
+        while (walk.next() != Walk.DONE) {
+            if (walk.event == Walk.VISIT) {
+                inorder[nodes] = walk.node.element;
+                counts[nodes++] = walk.node.count;
+            }
+        }
+        return buildBalanced(inorder, counts, 0, nodes - 1, n.parent);
+    }
+
+    /** O(logn)
+     * Remove one occurrence of an element from the tree.
+     * Only the path from the removed node to the root is updated (and rebalanced in balanced mode).
+     *
+     * @param element the item to remove
+     * @return true if the element was found and removed
+     */
+    public boolean remove(E element) {
+        TreeMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        int depth = 0;
+        boolean found = false;
+        pinSnapshots();
+        BinaryNode<E> n = root;
+        while (n != null) {
+            depth++;
+            int compareResult = element.compareTo(n.element);
+            if (compareResult < 0) n = n.left;
+            else if (compareResult > 0) n = n.right;
+            else {
+                if (n.count > 1) removeCopy(n);
+                else removeNode(n);
+                found = true;
+                break;
+            }
+        }
+        if (m != null) m.record(TreeMetrics.REMOVE, start, depth, depth);
+        return found;
+    }
+
+    /** O(k logn) to remove k elements
+     * Remove every element e with lo <= e <= hi
+     *
+     * @param lo smallest element to remove
+     * @param hi largest element to remove
+     * @return number of elements removed
+     */
+    public int removeRange(E lo, E hi) {
+        if (lo.compareTo(hi) > 0) return 0;
+        pinSnapshots();
+        int removed = 0;
+        BinaryNode<E> n = ceiling(lo);
+        while (n != null && n.element.compareTo(hi) <= 0) {
+            removed += n.count;
+            removeNode(n);
+            n = ceiling(lo);
+        }
+        return removed;
+    }
+
+    /**
+     * Find an item in the tree.
+     *
+     * @param lookFor the item to search for.
+     * @return true if lookFor is found.
+     */
+    public boolean contains(E lookFor) {
+        return contains(lookFor, root);
+    }
+
+    /**
+     * Start counting calls, time, comparisons and descent depth of contains, lca, insert, remove, select and rank,
+     * and publish them with the tree's height and size as an MBean on the platform MBean server.
+     * Until this is called the tree keeps no metrics and the operations only check a null field.
+     * The bean only holds the tree weakly and is removed once the tree is collected, disableMetrics removes it sooner.
+     *
+     * @return the metrics of this tree
+     */
+    public TreeMetrics enableMetrics() {
+        if (metrics == null) {
+            //the readers take the tree as an argument, a lambda reading root would keep this tree alive in the bean
+            TreeMetrics m = new TreeMetrics(treeName, this, t -> size(t.root), t -> t.getHeight(t.root));
+            m.register();
+            metrics = m;
+        }
+        return metrics;
+    }
+
+    /**
+     * Stop counting and remove the MBean
+     */
+    public void disableMetrics() {
+        if (metrics != null) {
+            metrics.unregister();
+            metrics = null;
+        }
+    }
+
+    /**
+     * Return a string displaying the tree contents as an indented tree.
+     * @return tree in indented string form
+     */
+    public String toString() {
+        StringBuilder builtString = new StringBuilder();
+        try {
+            writeTree(builtString);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); //a StringBuilder never throws
+        }
+        return builtString.toString();
+    }
 
-        int compare1 = t.element.compareTo(element1); //compares t to element1
-        int compare2 = t.element.compareTo(element2); //compares t to element2
+    /** O(n)
+     * Write the tree contents as an indented tree, the same text as toString, without building it in memory first
+     * @param out where to write the tree
+     * @throws IOException if out fails
+     */
+    public void writeTree(Appendable out) throws IOException {
+        out.append(treeName).append("\n");
+        writeTree(root, out);
+    }
 
-        //check if on same side of node
-        if (compare1 > 0 && compare2 > 0) {
-            if (t.left != null) return lca(t.left, element1, element2);
-            return t.element;
+    /** O(n)
+     * Internal method used to write a tree as a sideways tree
+     * Walks right to left so the highest value is printed first, indenting each node by its depth.
+     * @param n node to print tree from
+     * @param out where to write the tree
+     */
+    private void writeTree(BinaryNode<E> n, Appendable out) throws IOException {
+        StringBuilder indent = new StringBuilder(); //grows to the deepest indent, then reused for every line
+        Walk<E> walk = new Walk<>(n, true);
+        while (walk.next() != Walk.DONE) {
+            if (walk.event == Walk.VISIT) {
+                int indentLength = 4 * (walk.depth + 1); //increase indent each level
+                while (indent.length() < indentLength) {
+                    indent.append("    ");
+                }
+                out.append(indent, 0, indentLength);
+                walk.node.appendTo(out);
+                out.append("\n");
+            }
         }
-        if (compare1 < 0 && compare2 < 0) {
-            if (t.right != null) return lca(t.right, element1, element2);
+    }
+
+    /**
+     * Return a string displaying the tree contents as a single line
+     */
+    public String listTree() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeList(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); //a StringBuilder never throws
+        }
+        return sb.toString();
+    }
+
+    /** O(n)
+     * Write the tree contents as a single line, the same text as listTree
+     * @param out where to write the list
+     * @throws IOException if out fails
+     */
+    public void writeList(Appendable out) throws IOException {
+        if (root == null) {
+            out.append(treeName).append(" Empty tree");
+        } else {
+            out.append(treeName).append(" ");
+            writeList(root, out);
+        }
+    }
+
+    /** O(1) while the level counts are current, O(n) to rebuild them after a rotation or a remove
+     * @param level in tree (root starts at 0)
+     * @return number of nodes at level
+     */
+    public int nodesInLevel(int level) {
+        int[] counts = currentLevelCounts();
+        if (level < 0 || level >= counts.length) return 0;
+        return counts[level];
+    }
+
+    /** O(height) while the level counts are current, O(n) to rebuild them
+     * @return number of nodes at each level, index 0 is the root
+     */
+    public int[] levelCounts() {
+        return Arrays.copyOf(currentLevelCounts(), getHeight(root));
+    }
+
+    /**
+     * @return levelCounts, rebuilt in one pass first if a change made it stale
+     */
+    private int[] currentLevelCounts() {
+        if (levelCounts == null) {
+            int[] counts = new int[getHeight(root)];
+            Walk<E> walk = new Walk<>(root, false);
+            while (walk.next() != Walk.DONE) {
+                if (walk.event == Walk.ENTER) counts[walk.depth]++;
+            }
+            levelCounts = counts;
+        }
+        return levelCounts;
+    }
+
+    /** O(1) amortized
+     * Count a node added at or removed from a level, if the level counts are current
+     * @param level level of the node
+     * @param delta 1 for an added node, -1 for a removed one
+     */
+    private void countLevel(int level, int delta) {
+        if (levelCounts == null) return;
+        if (level >= levelCounts.length) {
+            levelCounts = Arrays.copyOf(levelCounts, Math.max(2 * levelCounts.length, level + 1));
+        }
+        levelCounts[level] += delta;
+    }
+
+    /** O(n)
+     * private method returning the sum of node count for a level
+     * @param n the relative node from  which level is checked
+     * @param level what level you are checking the node count on
+     * @return the total number of nodes for a level
+     */
+    private int nodesInLevel(BinaryNode<E> n, int level) {
+        if (level < 0) return 0;
+        //create sum to keep track of level count
+        int nodeLevelSum = 0;
+        Walk<E> walk = new Walk<>(n, false);
+        while (walk.next() != Walk.DONE) {
+            if (walk.event == Walk.ENTER && walk.depth == level) {
+                nodeLevelSum++; //count the node, nothing below it is on this level
+                walk.skipChildren();
+            }
+        }
+        return nodeLevelSum;
+    }
+
+    /** O(logn)
+     * @param n the ordinal number of the node desired
+     * @return return the string representing the nth node in a bst, "None" if there is no nth node
+     */
+    public String findNthInOrder(int n) {
+        BinaryNode<E> nth = findNthInOrder(root, n);
+        if (nth == null) return "None";
+        else return nth.element.toString();
+    }
+
+    /** O(logn)
+     * @param k the ordinal number of the element desired (1 is the smallest)
+     * @return the kth smallest element, null if k is not between 1 and the size of the tree
+     */
+    public E select(int k) {
+        BinaryNode<E> kth = findNthInOrder(root, k);
+        return kth == null ? null : kth.element;
+    }
+
+    /** O(m log(n/m)) for m sorted ranks
+     * Select many ranks in one pass. Each search starts from the node the last one found, climbing only as far
+     * as needed to cover the next rank, so sorted ranks share most of their path.
+     *
+     * @param ranks   ordinal numbers of the elements desired, any order but sorted is fastest
+     * @param results array to fill, results[i] is select(ranks[i])
+     * @return results
+     */
+    public E[] selectAll(int[] ranks, E[] results) {
+        int size = size(root);
+        BinaryNode<E> n = root;
+        int lo = 1;      //smallest rank in the subtree under n
+        int hi = size;   //largest rank in the subtree under n
+        for (int i = 0; i < ranks.length; i++) {
+            int k = ranks[i];
+            if (k < 1 || k > size) {
+                results[i] = null;
+                continue;
+            }
+            while (k < lo || k > hi) { //climb until the subtree covers k, the root covers every rank
+                BinaryNode<E> parent = n.parent;
+                if (parent.left == n) hi += parent.count + parent.rightCt;
+                else lo -= parent.leftCt + parent.count;
+                n = parent;
+            }
+            int own = lo + n.leftCt; //n's copies have ranks own .. own + count - 1
+            while (k < own || k >= own + n.count) {
+                if (k < own) {
+                    hi = own - 1;
+                    n = n.left;
+                } else {
+                    lo = own + n.count;
+                    n = n.right;
+                }
+                own = lo + n.leftCt;
+            }
+            results[i] = n.element;
+        }
+        return results;
+    }
+
+    /** O(logn)
+     * @param node root of the subtree to search
+     * @param n    the ordinal number of the node desired within the subtree
+     * @return the nth node of the subtree, null if n is out of range
+     */
+    private BinaryNode<E> findNthInOrder(BinaryNode<E> node, int n) {
+        TreeMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        if (n < 1 || n > size(node)) { // check if n is in possible range of nodes
+            if (m != null) m.record(TreeMetrics.SELECT, start, 0, 0);
+            return null;
+        }
+        int depth = 1;
+        while (n <= node.leftCt || n > node.leftCt + node.count) {
+            depth++;
+            if (n <= node.leftCt) { //n is on left
+                node = node.left;
+            } else { //n is on right
+                n -= node.leftCt + node.count;
+                node = node.right;
+            }
+        }
+        if (m != null) m.record(TreeMetrics.SELECT, start, depth, 0); //counts only, no comparisons
+        return node; //return the node once n is found
+    }
+
+    /** O(1)
+     * The width of the tree is cached at the root and kept current by every change to the tree
+     *
+     * @return width of the tree
+     */
+    public int width() {
+        return getDiameter(root);
+    }
+
+    /** O(1)
+     * @return width and height of the tree
+     */
+    public TreeInfo widthInfo() {
+        return new TreeInfo(getDiameter(root), getHeight(root));
+    }
+
+    /** O(1)
+     * return the height of a node
+     * @param n the node of interest
+     * @return height of node
+     */
+    private int getHeight(BinaryNode<E> n) {
+        if (n == null) return 0;
+        return n.height;
+    }
+
+    /** O(1)
+     * return the width of the subtree under a node
+     * @param n the node of interest
+     * @return width of the subtree, the longest path counted in nodes
+     */
+    private int getDiameter(BinaryNode<E> n) {
+        if (n == null) return 0;
+        return n.diameter;
+    }
+
+    /** O(n
+     * @param t2 tree to compare to
+     * @return true if this tree and t2 are isomorphic (same shape)
+     */
+    public boolean isIsomorphic(Tree<E> t2) {
+        //call helper function
+        return isIsomorphic(this.root, t2.root);
+    }
+
+    /**
+     * O(1) when the shapes differ, O(n) to confirm a match
+     * @param n1 first node to compare (root of subtree)
+     * @param n2 second node to compare (root of subtree)
+     * @return boolean of isomorphism
+     */
+    private boolean isIsomorphic(BinaryNode<E> n1, BinaryNode<E> n2) {
+        if (getShape(n1) != getShape(n2)) return false; //different fingerprints can't be the same shape
+        //walk both trees in lockstep, they stay in step as long as every pair of nodes has the same children
+        Walk<E> walk1 = new Walk<>(n1, false);
+        Walk<E> walk2 = new Walk<>(n2, false);
+        while (true) {
+            int event = walk1.next();
+            if (event != walk2.next()) return false; //one tree ran out before the other
+            if (event == Walk.DONE) return true;
+            if (event == Walk.ENTER) {
+                BinaryNode<E> a = walk1.node;
+                BinaryNode<E> b = walk2.node;
+                if ((a.left == null) != (b.left == null) || (a.right == null) != (b.right == null)) return false;
+            }
+        }
+    }
+
+    /** O(1) when the shapes differ, O(n) to confirm a match
+     * @param t2 tree to compare to
+     * @return true if this tree and t2 are quasi isomorphic
+     */
+    public boolean isQuasiIsomorphic(Tree<E> t2) {
+        return isQuasiIsomorphic(this.root, t2.root);
+    }
+
+    /**
+     * O(1) when the shapes differ, O(n) to confirm a match
+     * Quasi isomorphic trees become isomorphic by swapping the children of some nodes.
+     * @param n1 first node to compare (root of subtree)
+     * @param n2 second node to compare (root of subtree)
+     * @return boolean of quasi isomorphism
+     */
+    private boolean isQuasiIsomorphic(BinaryNode<E> n1, BinaryNode<E> n2) {
+        if (getQuasiShape(n1) != getQuasiShape(n2)) return false;
+        if (matchQuasiShapes(n1, n2)) return true;
+        return searchQuasiIsomorphic(n1, n2); //only reached if two different shapes share a fingerprint
+    }
+
+    /** O(n)
+     * Pair up children by their quasi fingerprints and check the pairs all the way down.
+     * A true result is exact. A false result with equal fingerprints at the top means some fingerprints collided.
+     * @param n1 first node to compare (root of subtree)
+     * @param n2 second node to compare (root of subtree)
+     * @return true if the fingerprint pairing shows the subtrees are quasi isomorphic
+     */
+    private boolean matchQuasiShapes(BinaryNode<E> n1, BinaryNode<E> n2) {
+        ArrayList<BinaryNode<E>> pairs = new ArrayList<>();
+        pairs.add(n1);
+        pairs.add(n2);
+        while (!pairs.isEmpty()) {
+            BinaryNode<E> b = pairs.remove(pairs.size() - 1);
+            BinaryNode<E> a = pairs.remove(pairs.size() - 1);
+            if (a == null || b == null) {
+                if (a != b) return false;
+                continue;
+            }
+            if (a.quasiShape != b.quasiShape || a.height != b.height) return false;
+            pairs.add(a.left);
+            if (getQuasiShape(a.left) == getQuasiShape(b.left)) {
+                pairs.add(b.left);
+                pairs.add(a.right);
+                pairs.add(b.right);
+            } else {
+                pairs.add(b.right);
+                pairs.add(a.right);
+                pairs.add(b.left);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Try both pairings of the children at every node, exponential in the worst case
+     * @param n1 first node to compare (root of subtree)
+     * @param n2 second node to compare (root of subtree)
+     * @return boolean of quasi isomorphism
+     */
+    private boolean searchQuasiIsomorphic(BinaryNode<E> n1, BinaryNode<E> n2) {
+        if (n1 == null && n2 == null) return true; //base case where you reached the end of a branch
+        if (n1 == null || n2 == null) return false; //not isomorphic base case
+
+        // cases that separate the iso from quasi is everything after the or
+        return (searchQuasiIsomorphic(n1.left, n2.left) && searchQuasiIsomorphic(n1.right, n2.right)) ||
+                (searchQuasiIsomorphic(n1.left, n2.right) && searchQuasiIsomorphic(n1.right, n2.left));
+    }
+
+    /**
+     * Print all paths from root to each leaf
+     */
+    public void printAllPaths() {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        try {
+            writeAllPaths(out);
+            out.flush(); //System.out stays open
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** O(n + total path length)
+     * Write all paths from root to each leaf, one per line
+     * @param out where to write the paths
+     * @throws IOException if out fails
+     */
+    public void writeAllPaths(Appendable out) throws IOException {
+        stringAllPaths(root, out);
+    }
+
+    /** O(n + total path length)
+     * Write a string with the paths from a node to its children
+     * @param n parent node from which the check for children paths is made
+     * @param out where to write the paths
+     */
+    private void stringAllPaths(BinaryNode<E> n, Appendable out) throws IOException {
+        StringBuilder subString = new StringBuilder(); //path to the current node
+        int[] pathLength = new int[16];                //length of subString before each node on the path
+        Walk<E> walk = new Walk<>(n, false);
+        while (walk.next() != Walk.DONE) {
+            BinaryNode<E> t = walk.node;
+            if (walk.event == Walk.ENTER) {
+                if (walk.depth == pathLength.length) pathLength = Arrays.copyOf(pathLength, 2 * walk.depth);
+                pathLength[walk.depth] = subString.length();
+                subString.append(t.element).append(" ");
+                if (t.left == null && t.right == null) {
+                    out.append(subString).append("\n");
+                }
+            } else if (walk.event == Walk.EXIT) {
+                subString.setLength(pathLength[walk.depth]); //drop this node from the path on the way back up
+            }
+        }
+    }
+    //my crappy first attempt that I got stuck on for a long time...
+//    private String stringAllPaths(BinaryNode<E> n, String subString, String metaString) {
+////        set substring
+//        subString += n.element + " ";
+////        if the node is null return the sub+meta
+//        if (n.left == null && n.right == null) {
+//            metaString = subString + "\n";
+//            return metaString;
+//        }
+//        //set metaString += to all of the left paths if n.left exists
+//        if (n.left != null) {
+//            metaString += stringAllPaths(n.left, subString, metaString);
+//        }
+//        //set metaString += to all the right paths too if right child exists
+//        if (n.right != null) {
+//            metaString += stringAllPaths(n.right, subString, metaString);
+//        }
+        //return the metaString
+//        return metaString;
+//    }
+
+
+    /** O(n/p)
+     * countFringe spread over the common ForkJoinPool
+     * @return number of leaf nodes
+     */
+    public int parallelCountFringe() {
+        return ForkJoinPool.commonPool().invoke(new CountFringeTask(root));
+    }
+
+    /** O(n/p)
+     * nodesInLevel spread over the common ForkJoinPool
+     * @param level in tree (root starts at 0)
+     * @return number of nodes at level
+     */
+    public int parallelNodesInLevel(int level) {
+        if (level < 0) return 0;
+        return ForkJoinPool.commonPool().invoke(new NodesInLevelTask(root, level));
+    }
+
+    /** O(1)
+     * Width is cached and kept current by every change, so there is nothing left to spread over threads
+     * @return width of the tree
+     */
+    public int parallelWidth() {
+        return width();
+    }
+
+    /** O(n/p)
+     * isIsomorphic spread over the common ForkJoinPool
+     * @param t2 tree to compare to
+     * @return true if this tree and t2 are isomorphic (same shape)
+     */
+    public boolean parallelIsIsomorphic(Tree<E> t2) {
+        if (getShape(this.root) != getShape(t2.root)) return false;
+        return ForkJoinPool.commonPool().invoke(new IsomorphicTask(this.root, t2.root));
+    }
+
+    /**
+     * isQuasiIsomorphic spread over the common ForkJoinPool
+     * @param t2 tree to compare to
+     * @return true if this tree and t2 are quasi isomorphic
+     */
+    public boolean parallelIsQuasiIsomorphic(Tree<E> t2) {
+        if (getQuasiShape(this.root) != getQuasiShape(t2.root)) return false;
+        return ForkJoinPool.commonPool().invoke(new QuasiIsomorphicTask(this.root, t2.root));
+    }
+
+    /** O(1)
+     * @param n root of a subtree, may be null
+     * @return number of elements in the subtree, every copy counts
+     */
+    private static int size(BinaryNode<?> n) {
+        if (n == null) return 0;
+        return n.leftCt + n.rightCt + n.count;
+    }
+
+    /** O(n) in multiset mode, O(1) otherwise
+     * @param n root of a subtree, may be null
+     * @return number of nodes in the subtree
+     */
+    private int nodeCount(BinaryNode<E> n) {
+        if (!multiset) return size(n);
+        int nodes = 0;
+        Walk<E> walk = new Walk<>(n, false);
+        while (walk.next() != Walk.DONE) {
+            if (walk.event == Walk.ENTER) nodes++;
+        }
+        return nodes;
+    }
+
+    /**
+     * @param n node with at least one child
+     * @return the child with the smaller subtree
+     */
+    private static <T> BinaryNode<T> smallerChild(BinaryNode<T> n) {
+        return size(n.left) <= size(n.right) ? n.left : n.right;
+    }
+
+    // The parallel tasks only fork where both subtrees are big enough to be worth a task. Below a node with one
+    // small side they run the small side sequentially and move down into the big side in a loop, so a lopsided tree
+    // makes a long loop instead of a deep chain of tasks.
+    // In multiset mode size counts copies, so it only steers where to split. A big subtree can be a single node
+    // holding many copies, the loops check the node itself before stepping past it.
+
+    private class CountFringeTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final BinaryNode<E> top;  // Root of the subtree to count
+
+        CountFringeTask(BinaryNode<E> top) {
+            this.top = top;
+        }
+
+        protected Integer compute() {
+            int leafCount = 0;
+            BinaryNode<E> n = top;
+            while (size(n) > PARALLEL_THRESHOLD && (n.left != null || n.right != null)) { //a leaf is counted below
+                if (size(n.left) > PARALLEL_THRESHOLD && size(n.right) > PARALLEL_THRESHOLD) {
+                    CountFringeTask leftTask = new CountFringeTask(n.left);
+                    leftTask.fork();
+                    return leafCount + new CountFringeTask(n.right).compute() + leftTask.join();
+                }
+                BinaryNode<E> small = smallerChild(n);
+                leafCount += countFringe(small);
+                n = small == n.left ? n.right : n.left;
+            }
+            return leafCount + countFringe(n);
+        }
+    }
+
+    private class NodesInLevelTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final BinaryNode<E> top;  // Root of the subtree to count in
+        private final int level;          // Level to count, relative to top
+
+        NodesInLevelTask(BinaryNode<E> top, int level) {
+            this.top = top;
+            this.level = level;
+        }
+
+        protected Integer compute() {
+            int nodeLevelSum = 0;
+            BinaryNode<E> n = top;
+            int depth = 0;
+            while (size(n) > PARALLEL_THRESHOLD && depth < level) {
+                if (size(n.left) > PARALLEL_THRESHOLD && size(n.right) > PARALLEL_THRESHOLD) {
+                    NodesInLevelTask leftTask = new NodesInLevelTask(n.left, level - depth - 1);
+                    leftTask.fork();
+                    return nodeLevelSum + new NodesInLevelTask(n.right, level - depth - 1).compute() + leftTask.join();
+                }
+                BinaryNode<E> small = smallerChild(n);
+                nodeLevelSum += nodesInLevel(small, level - depth - 1);
+                n = small == n.left ? n.right : n.left;
+                depth++;
+            }
+            return nodeLevelSum + nodesInLevel(n, level - depth);
+        }
+    }
+
+    private class IsomorphicTask extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final BinaryNode<E> top1;  // Root of subtree in first tree
+        private final BinaryNode<E> top2;  // Root of subtree in second tree
+
+        IsomorphicTask(BinaryNode<E> top1, BinaryNode<E> top2) {
+            this.top1 = top1;
+            this.top2 = top2;
+        }
+
+        protected Boolean compute() {
+            BinaryNode<E> n1 = top1;
+            BinaryNode<E> n2 = top2;
+            while (size(n1) > PARALLEL_THRESHOLD) {
+                //same shape means same subtree heights, so a height mismatch settles it early
+                if (n2 == null || getHeight(n1.left) != getHeight(n2.left) || getHeight(n1.right) != getHeight(n2.right)) {
+                    return false;
+                }
+                if (size(n1.left) > PARALLEL_THRESHOLD && size(n1.right) > PARALLEL_THRESHOLD) {
+                    IsomorphicTask leftTask = new IsomorphicTask(n1.left, n2.left);
+                    leftTask.fork();
+                    boolean rightSame = new IsomorphicTask(n1.right, n2.right).compute();
+                    return leftTask.join() && rightSame;
+                }
+                if (size(n1.left) <= size(n1.right)) {
+                    if (!isIsomorphic(n1.left, n2.left)) return false;
+                    n1 = n1.right;
+                    n2 = n2.right;
+                } else {
+                    if (!isIsomorphic(n1.right, n2.right)) return false;
+                    n1 = n1.left;
+                    n2 = n2.left;
+                }
+            }
+            return isIsomorphic(n1, n2);
+        }
+    }
+
+    private class QuasiIsomorphicTask extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final BinaryNode<E> n1;  // Root of subtree in first tree
+        private final BinaryNode<E> n2;  // Root of subtree in second tree
+
+        QuasiIsomorphicTask(BinaryNode<E> n1, BinaryNode<E> n2) {
+            this.n1 = n1;
+            this.n2 = n2;
+        }
+
+        protected Boolean compute() {
+            if (n1 == null || n2 == null
+                    || Math.min(size(n1.left), size(n1.right)) <= PARALLEL_THRESHOLD
+                    || Math.min(size(n2.left), size(n2.right)) <= PARALLEL_THRESHOLD) {
+                return isQuasiIsomorphic(n1, n2);
+            }
+            if (getQuasiShape(n1) != getQuasiShape(n2) || n1.height != n2.height) return false;
+            //pair the children by fingerprint as matchQuasiShapes does, and only run those two comparisons
+            boolean straight = getQuasiShape(n1.left) == getQuasiShape(n2.left);
+            if (pairsMatch(straight)) return true;
+            return pairsMatch(!straight); //some fingerprints below collided, the other pairing can still match
+        }
+
+        /**
+         * Compare the children of n1 and n2 in one pairing, both pairs at once
+         * @param straight true to pair left with left, false to pair left with right
+         * @return true if both pairs are quasi isomorphic
+         */
+        private boolean pairsMatch(boolean straight) {
+            QuasiIsomorphicTask first = new QuasiIsomorphicTask(n1.left, straight ? n2.left : n2.right);
+            QuasiIsomorphicTask second = new QuasiIsomorphicTask(n1.right, straight ? n2.right : n2.left);
+            invokeAll(first, second);
+            return first.join() && second.join();
+        }
+    }
+
+    /** O(logn)
+     * Take one copy out of a multiset node that holds more than one
+     * @param n node to take from
+     */
+    private void removeCopy(BinaryNode<E> n) {
+        preserve(n);
+        n.count--;
+        for (BinaryNode<E> p = n.parent; p != null; n = p, p = p.parent) {
+            preserve(p);
+            if (p.left == n) p.leftCt--;
+            else p.rightCt--;
+        }
+    }
+
+    /** O(logn)
+     * Unlink a node, with all of its copies, from the tree.
+     * A node with two children takes its successor's element, and the successor (which has no left child) is
+     * unlinked instead. Counts are decremented on the way up, then heights, widths and fingerprints are updated.
+     *
+     * @param z node to remove
+     */
+    private void removeNode(BinaryNode<E> z) {
+        int lost = z.count;         //elements leaving each subtree on the way up
+        BinaryNode<E> kept = null;  //node that took its successor's element
+        int keptLost = 0;           //elements leaving the subtrees above kept
+        if (z.left != null && z.right != null) {
+            BinaryNode<E> successor = first(z.right);
+            preserve(z);
+            kept = z;
+            keptLost = z.count;
+            z.element = successor.element;
+            z.count = successor.count;
+            z = successor;
+            lost = successor.count;
+        }
+
+        BinaryNode<E> child = z.left != null ? z.left : z.right;
+        BinaryNode<E> parent = z.parent;
+        if (child == null) {
+            countLevel(depth(z), -1); //removing a leaf moves no other node
+        } else {
+            levelCounts = null; //child's whole subtree moves up a level
+        }
+        boolean fromLeft = parent != null && parent.left == z;
+        preserve(z); //snapshots may still reach z
+        if (parent != null) preserve(parent);
+        if (child != null) child.parent = parent;
+        if (parent == null) root = child;
+        else if (fromLeft) parent.left = child;
+        else parent.right = child;
+        z.left = z.right = z.parent = null;
+
+        for (BinaryNode<E> p = parent; p != null; p = p.parent) {
+            preserve(p);
+            if (fromLeft) p.leftCt -= lost;
+            else p.rightCt -= lost;
+            if (p == kept) lost = keptLost; //above kept its old element is what's gone
+            fromLeft = p.parent != null && p.parent.left == p;
+        }
+        if (balanced) rebalanceToRoot(parent);
+        else updateToRoot(parent);
+    }
+
+    /** O(logn)
+     * Rebalance every node from n up to the root after an AVL insert or remove.
+     * @param n lowest node whose subtree changed
+     */
+    private void rebalanceToRoot(BinaryNode<E> n) {
+        while (n != null) {
+            BinaryNode<E> parent = n.parent;
+            BinaryNode<E> subtreeRoot = rebalance(n);
+            if (parent != null && subtreeRoot != n) preserve(parent);
+            if (parent == null) root = subtreeRoot;
+            else if (parent.left == n) parent.left = subtreeRoot;
+            else parent.right = subtreeRoot;
+            n = parent;
+        }
+    }
+
+    /** O(1)
+     * Restore the AVL property at n, assuming both of its subtrees are already balanced.
+     * @param n node whose subtree may be out of balance by at most 2
+     * @return the new root of the subtree (parent link set, caller relinks it)
+     */
+    private BinaryNode<E> rebalance(BinaryNode<E> n) {
+        int balance = getHeight(n.left) - getHeight(n.right);
+        if (balance > 1) {
+            if (getHeight(n.left.left) < getHeight(n.left.right)) {
+                preserve(n);
+                n.left = rotateLeft(n.left);
+            }
+            return rotateRight(n);
+        }
+        if (balance < -1) {
+            if (getHeight(n.right.right) < getHeight(n.right.left)) {
+                preserve(n);
+                n.right = rotateRight(n.right);
+            }
+            return rotateLeft(n);
+        }
+        updateStats(n);
+        return n;
+    }
+
+    /** O(1)
+     * Rotate n's left child up into n's place, fixing parent links, subtree counts and heights.
+     * @param n root of the subtree to rotate
+     * @return the new root of the subtree
+     */
+    private BinaryNode<E> rotateRight(BinaryNode<E> n) {
+        levelCounts = null; //subtrees change level
+        BinaryNode<E> l = n.left;
+        preserve(n);
+        preserve(l);
+        n.left = l.right;
+        if (l.right != null) l.right.parent = n;
+        l.right = n;
+        l.parent = n.parent;
+        n.parent = l;
+
+        n.leftCt = l.rightCt;
+        l.rightCt = size(n);
+        updateStats(n);
+        updateStats(l);
+        return l;
+    }
+
+    /** O(1)
+     * Rotate n's right child up into n's place, fixing parent links, subtree counts and heights.
+     * @param n root of the subtree to rotate
+     * @return the new root of the subtree
+     */
+    private BinaryNode<E> rotateLeft(BinaryNode<E> n) {
+        levelCounts = null; //subtrees change level
+        BinaryNode<E> r = n.right;
+        preserve(n);
+        preserve(r);
+        n.right = r.left;
+        if (r.left != null) r.left.parent = n;
+        r.left = n;
+        r.parent = n.parent;
+        n.parent = r;
+
+        n.rightCt = r.leftCt;
+        r.leftCt = size(n);
+        updateStats(n);
+        updateStats(r);
+        return r;
+    }
+
+    /** O(1)
+     * Recompute the height, width and shape fingerprints of n from its children
+     * @param n node to update
+     */
+    private void updateStats(BinaryNode<E> n) {
+        int leftHeight = getHeight(n.left);
+        int rightHeight = getHeight(n.right);
+        int height = Math.max(leftHeight, rightHeight) + 1;
+        int diameter = Math.max(leftHeight + rightHeight + 1, Math.max(getDiameter(n.left), getDiameter(n.right)));
+        if (height != n.height || diameter != n.diameter) { //recomputing unchanged stats must not touch snapshots
+            preserve(n);
+            n.height = height;
+            n.diameter = diameter;
         }
-        return t.element;
+        n.shape = combineShapes(getShape(n.left), getShape(n.right));
+        long leftQuasi = getQuasiShape(n.left);
+        long rightQuasi = getQuasiShape(n.right);
+        n.quasiShape = combineShapes(Math.min(leftQuasi, rightQuasi), Math.max(leftQuasi, rightQuasi));
     }
 
-    /**
-     * Find predecessor of the currentNode node.
-     * Uses currentNode, a local variable set by contains.
-     * SIDE EFFECT: Sets local variable currentNode to be the predecessor that is found
-     *
-     * @return String representation of predecessor
+    /** O(logn) if snapshots are open, O(1) otherwise
+     * Note the oldest open snapshot before a change. Versions older than that are dropped when a node is next
+     * preserved.
      */
-    public String predecessor() {
-        //TODO OPTIONAL Write predecessor
-        return " ";
+    private void pinSnapshots() {
+        if (openSnapshots == null) return;
+        Map.Entry<Long, Integer> oldest = openSnapshots.firstEntry();
+        pinnedEpoch = oldest == null ? NO_SNAPSHOT : oldest.getKey();
     }
 
-    /**
-     * Insert into the bst tree;
+    /** O(1) amortized
+     * Must be called before changing the element, links, counts, height or width of a node.
+     * If a snapshot was taken since the node last changed, its current state is saved in prior first, where
+     * snapshots at or after its stamp find it.
      *
-     * @param newElement the item to insert.
+     * @param n node about to change
      */
-    public void insert(E newElement) {
-        root = insert(newElement, root, null);
+    private void preserve(BinaryNode<E> n) {
+        if (pinnedEpoch == NO_SNAPSHOT || n.stamp == epoch) return;
+        NodeVersion<E> saved = new NodeVersion<>(n, n.stamp, n.prior);
+        for (NodeVersion<E> v = saved; v != null; v = v.prior) {
+            if (v.stamp <= pinnedEpoch) { //every open snapshot sees v or something newer
+                v.prior = null;
+                break;
+            }
+        }
+        n.prior = saved;
+        n.stamp = epoch;         //publishes prior to snapshots that read the new stamp
+        VarHandle.releaseFence(); //and keeps the changes that follow from moving above the stamp
     }
 
-    /**
-     * Find an item in the tree.
-     *
-     * @param lookFor the item to search for.
-     * @return true if lookFor is found.
+    /** O(logn)
+     * Update height, width and fingerprints from n up to the root after n's subtree changed.
+     * @param n lowest node whose subtree changed
      */
-    public boolean contains(E lookFor) {
-        currentNode = null;
-        return contains(lookFor, root);
+    private void updateToRoot(BinaryNode<E> n) {
+        while (n != null) {
+            updateStats(n);
+            n = n.parent;
+        }
     }
 
-    /**
-     * Return a string displaying the tree contents as an indented tree.
-     * @return tree in indented string form
+    /** O(1)
+     * Fingerprint of a node's shape from the fingerprints of its left and right subtrees.
+     * The order of the arguments matters, so swapping two different children changes the result.
+     * @param leftShape  fingerprint of the left subtree
+     * @param rightShape fingerprint of the right subtree
+     * @return fingerprint of the node
      */
-    public String toString() {
-        String builtString = this.treeName + "\n";
-        return toString(root, builtString, "");
+    private static long combineShapes(long leftShape, long rightShape) {
+        long z = leftShape * 31 + Long.rotateLeft(rightShape, 17);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L; //splitmix64 finalizer to spread the bits
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
-    /** O(n)
-     * Internal method used to convert a tree to a sideways tree string
-     * @param n node to print tree from
-     * @param builtString String that gets built up with each recursive call
-     * @return builtString completed containing tree
+
+    /** O(1)
+     * @param n the node of interest
+     * @return fingerprint of the shape of the subtree, equal for isomorphic subtrees
      */
-    private String toString(BinaryNode<E> n, String builtString, String indent) {
-        if (n != null) {
-            indent += "    "; //increase indent each level of recursion
-            builtString = toString(n.right, builtString, indent); //go to highest value node in subtree n
-            builtString += indent + n.toString() + "\n"; //add node to the string
-            builtString = toString(n.left, builtString, indent);// go to lowest value node in subtree m
-        }
-        return builtString;
+    private static long getShape(BinaryNode<?> n) {
+        if (n == null) return NULL_SHAPE;
+        return n.shape;
     }
 
-    /**
-     * Return a string displaying the tree contents as a single line
+    /** O(1)
+     * @param n the node of interest
+     * @return fingerprint of the shape of the subtree ignoring child order, equal for quasi isomorphic subtrees
      */
-    public String listTree() {
-        if (root == null)
-            return treeName + " Empty tree";
-        else
-            return treeName + " " + listTree(root);
+    private static long getQuasiShape(BinaryNode<?> n) {
+        if (n == null) return NULL_SHAPE;
+        return n.quasiShape;
     }
 
     /**
-     * @param level in tree (root starts at 0)
-     * @return number of nodes at level
+     * Internal method to find an item in a subtree.
+     * This routine runs in O(log n) on a balanced tree as there is only one step down per level and the work
+     * associated with a single step is independent of the size of the tree.
+     *
+     * @param element     is item to search for.
+     * @param subtreeRoot root of subtree.
+     * @return true if item is found
      */
-    public int nodesInLevel(int level) {
-        //call helper function on the root node
-        return nodesInLevel(root, level);
+    private boolean contains(E element, BinaryNode<E> subtreeRoot) {
+        TreeMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        int depth = 0;
+        boolean found = false;
+        while (subtreeRoot != null) {
+            depth++;
+            int compareResult = element.compareTo(subtreeRoot.element);
+
+            if (compareResult < 0)
+                subtreeRoot = subtreeRoot.left;
+            else if (compareResult > 0)
+                subtreeRoot = subtreeRoot.right;
+            else {
+                found = true;    // Match
+                break;
+            }
+        }
+        if (m != null) m.record(TreeMetrics.CONTAINS, start, depth, depth); //one comparison per node visited
+        return found;
     }
 
+
     /** O(n)
-     * private method returning the sum of node count for a level
-     * @param n the relative node from  which level is checked
-     * @param level what level you are checking the node count on
-     * @return the total number of nodes for a level
+     * Internal method to write the items in the tree in order
+     *
+     * @param t the node that roots the subtree.
+     * @param out where to write the items
      */
-    private int nodesInLevel(BinaryNode<E> n, int level) {
-        if (n == null) { //return nothing if you aren't at a node
-            return 0;
-        }
-        if (level == 0) { //if you've hit the level you aimed for, return a 1 for that node
-            return 1;
-        }
-        //create sum to keep track of level count
-        int nodeLevelSum = 0;
-        if (n.left != null) { //add left level sum if left exists
-            nodeLevelSum = nodesInLevel(n.left, level - 1); //left total count
-        }
-        if (n.right != null) { //add right level sum if exists
-            nodeLevelSum += nodesInLevel(n.right, level - 1); //right total count
+    private void writeList(BinaryNode<E> t, Appendable out) throws IOException {
+        Walk<E> walk = new Walk<>(t, false);
+        while (walk.next() != Walk.DONE) {
+            if (walk.event == Walk.VISIT) {
+                for (int copy = 0; copy < walk.node.count; copy++) {
+                    out.append(walk.node.element.toString()).append(" ");
+                }
+            }
         }
-        return nodeLevelSum;
     }
 
     /** O(logn)
-     * @param n the ordinal number of the node desired
-     * @return return the string representing the nth node in a bst
+     * @param n node in the tree
+     * @return depth of n, the root is at 0
      */
-    public String findNthInOrder(int n) {
-        //TODO need to write
-//        BinaryNode<E> nth = findNthInOrder(root, n);
-//        if (nth == null) return "NONE";
-//        else return nth.toString();
-        return findNthInOrder(root, n);
-    }
-    private String findNthInOrder(BinaryNode<E> node, int n) {
-//        System.out.println("node is" + node );
-        if (n > node.leftCt + node.rightCt + 1) { // check if n is in possible range of nodes
-            return "None";
-        }
-        if (n == node.leftCt + 1) { //return the node if n is found
-            return node.element.toString();
-        }
-        if (n <= node.leftCt) { //check if n is on left
-            return findNthInOrder(node.left, n);
-        }
-        else { //n is on right
-//            System.out.println("n went right, n is " + n + "\n");
-            return findNthInOrder(node.right, n - (node.leftCt + 1));
+    private static int depth(BinaryNode<?> n) {
+        int depth = 0;
+        for (n = n.parent; n != null; n = n.parent) {
+            depth++;
         }
+        return depth;
     }
 
-    /** Calculates the width of a tree by calling a function which calculates the maximum width of its subtrees
-     *
-     * @return width of the tree
+    /** O(logn)
+     * @param n root of a subtree, may be null
+     * @return node with the smallest element in the subtree
      */
-    public int width() {
-        //call the width function on the two subtrees
-        return width(root);
+    private static <T> BinaryNode<T> first(BinaryNode<T> n) {
+        if (n == null) return null;
+        while (n.left != null) n = n.left;
+        return n;
     }
 
-    /** O(n^2)
-     * Return a tree's width, and updates height while calculating width
-     * @param n node of which you're calculating width
-     * @return int of width
+    /** O(logn)
+     * @param n root of a subtree, may be null
+     * @return node with the largest element in the subtree
      */
-    private int width(BinaryNode<E> n) {
-        if (n == null) return 0;
-        int leftWidth = width(n.left);
-        int rightWidth = width(n.right);
-        int rootWidth = getHeight(n.left) + getHeight(n.right) + 1;
-        n.height = Math.max(getHeight(n.left), getHeight(n.right)) + 1;
-        return Math.max(rootWidth, Math.max(leftWidth,rightWidth));
+    private static <T> BinaryNode<T> last(BinaryNode<T> n) {
+        if (n == null) return null;
+        while (n.right != null) n = n.right;
+        return n;
     }
 
-    /** O(1)
-     * return the height of a node
-     * @param n the node of interest
-     * @return height of node
+    /** O(1) amortized over a scan
+     * @param n node in the tree
+     * @return next node in order, null if n is the last
      */
-    private int getHeight(BinaryNode<E> n) {
-        if (n == null) return 0;
-        return n.height;
+    private static <T> BinaryNode<T> successor(BinaryNode<T> n) {
+        if (n.right != null) return first(n.right);
+        BinaryNode<T> child = n;
+        n = n.parent;
+        while (n != null && n.right == child) { //climb until we come up from a left child
+            child = n;
+            n = n.parent;
+        }
+        return n;
     }
 
-    /** O(n
-     * @param t2 tree to compare to
-     * @return true if this tree and t2 are isomorphic (same shape)
+    /** O(1) amortized over a scan
+     * @param n node in the tree
+     * @return previous node in order, null if n is the first
      */
-    public boolean isIsomorphic(Tree<E> t2) {
-        //call helper function
-        return isIsomorphic(this.root, t2.root);
+    private static <T> BinaryNode<T> predecessor(BinaryNode<T> n) {
+        if (n.left != null) return last(n.left);
+        BinaryNode<T> child = n;
+        n = n.parent;
+        while (n != null && n.left == child) { //climb until we come up from a right child
+            child = n;
+            n = n.parent;
+        }
+        return n;
     }
 
     /**
-     * O(n)
-     * @param n1 first node to compare (root of subtree)
-     * @param n2 second node to compare (root of subtree)
-     * @return boolean of isomorphism
+     * Frozen view of the tree, made by snapshot(). Each node is read as it was when the snapshot was taken: the live
+     * fields if the node hasn't changed since, otherwise the saved version. A live read is checked against the
+     * node's stamp afterwards, like a seqlock, and redone from the saved version if the writer got there first.
+     * Walks use their own stack, since parent links always belong to the live tree.
+     * A snapshot can be used from any thread, but not after close.
      */
-    private boolean isIsomorphic(BinaryNode<E> n1, BinaryNode<E> n2) {
-        if (n1 == null && n2 == null) return true; //base case where you reached the end of a branch
-        if (n1 == null && n2 != null) return false; //not isomorphic base case
-        if (n1 != null && n2 == null) return false; // other not isomorphic base case
+    public class Snapshot implements AutoCloseable {
+        private final BinaryNode<E> top;  // Root of the tree when the snapshot was taken
+        private final long epoch;          // Node states with this stamp or older belong to the snapshot
+        private volatile boolean closed;
+
+        private Snapshot(BinaryNode<E> top, long epoch) {
+            this.top = top;
+            this.epoch = epoch;
+        }
 
-        return isIsomorphic(n1.left, n2.left) && isIsomorphic(n1.right, n2.right);
-    }
+        /** O(1)
+         * @return number of elements in the snapshot
+         */
+        public int size() {
+            checkOpen();
+            if (top == null) return 0;
+            NodeVersion<E> t = read(top);
+            return t.leftCt + t.rightCt + t.count;
+        }
 
-    /** O(n^2)
-     * @param t2 tree to compare to
-     * @return true if this tree and t2 are quasi isomorphic
-     */
-    public boolean isQuasiIsomorphic(Tree<E> t2) {
-        return isQuasiIsomorphic(this.root, t2.root);
-    }
+        /** O(logn)
+         * @param lookFor the item to search for.
+         * @return true if lookFor was in the tree when the snapshot was taken
+         */
+        public boolean contains(E lookFor) {
+            checkOpen();
+            BinaryNode<E> n = top;
+            while (n != null) {
+                NodeVersion<E> t = read(n);
+                int compareResult = lookFor.compareTo(t.element);
+                if (compareResult < 0) n = t.left;
+                else if (compareResult > 0) n = t.right;
+                else return true;
+            }
+            return false;
+        }
 
-    private boolean isQuasiIsomorphic(BinaryNode<E> n1, BinaryNode<E> n2) {
-        if (n1 == null && n2 == null) return true; //base case where you reached the end of a branch
-        if (n1 == null && n2 != null) return false; //not isomorphic base case (adding n2 != null is redundant)
-        if (n1 != null && n2 == null) return false; // other not isomorphic base case (adding n1 != null is redundant)
+        /** O(n)
+         * @return number of leaf nodes
+         */
+        public int countFringe() {
+            checkOpen();
+            int leafCount = 0;
+            ArrayDeque<BinaryNode<E>> stack = new ArrayDeque<>();
+            if (top != null) stack.push(top);
+            while (!stack.isEmpty()) {
+                NodeVersion<E> t = read(stack.pop());
+                if (t.left == null && t.right == null) leafCount += t.count;
+                if (t.left != null) stack.push(t.left);
+                if (t.right != null) stack.push(t.right);
+            }
+            return leafCount;
+        }
 
-        // cases that separate the iso from quasi is everything after the or
-        return (isQuasiIsomorphic(n1.left, n2.left) && isQuasiIsomorphic(n1.right, n2.right)) ||
-                (isQuasiIsomorphic(n1.left, n2.right) || isQuasiIsomorphic(n1.right, n2.left));
+        /** O(1)
+         * @return width of the tree when the snapshot was taken
+         */
+        public int width() {
+            checkOpen();
+            return top == null ? 0 : read(top).diameter;
+        }
+
+        /** O(n)
+         * @return the snapshot contents as a single line, the same text listTree gave when it was taken
+         */
+        public String listTree() {
+            checkOpen();
+            if (top == null) return treeName + " Empty tree";
+            StringBuilder sb = new StringBuilder(treeName).append(" ");
+            ArrayDeque<NodeVersion<E>> stack = new ArrayDeque<>();
+            BinaryNode<E> n = top;
+            while (n != null || !stack.isEmpty()) {
+                if (n != null) {
+                    NodeVersion<E> t = read(n);
+                    stack.push(t);
+                    n = t.left;
+                } else {
+                    NodeVersion<E> t = stack.pop();
+                    for (int copy = 0; copy < t.count; copy++) {
+                        sb.append(t.element).append(" ");
+                    }
+                    n = t.right;
+                }
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Let the tree drop node versions kept only for this snapshot
+         */
+        public void close() {
+            if (closed) return;
+            closed = true;
+            openSnapshots.computeIfPresent(epoch, (e, count) -> count == 1 ? null : count - 1);
+        }
+
+        private void checkOpen() {
+            if (closed) throw new IllegalStateException(treeName + " snapshot is closed");
+        }
+
+        /** O(1) amortized
+         * @param n node reachable in the snapshot
+         * @return state of n when the snapshot was taken
+         */
+        private NodeVersion<E> read(BinaryNode<E> n) {
+            long stamp = n.stamp;
+            if (stamp <= epoch) {
+                NodeVersion<E> live = new NodeVersion<>(n, stamp, null);
+                VarHandle.acquireFence(); //finish reading the fields before checking the stamp again
+                if (n.stamp == stamp) return live;
+            }
+            for (NodeVersion<E> v = n.prior; v != null; v = v.prior) {
+                if (v.stamp <= epoch) return v;
+            }
+            throw new IllegalStateException(treeName + " snapshot lost a node version");
+        }
     }
 
-    /**
-     * Print all paths from root to each leaf
-     */
-    public void printAllPaths() {
-        stringAllPaths(root, "");
+    // State of a node as of some epoch, kept for the snapshots that still need it
+    private static final class NodeVersion<T> {
+        final T element;
+        final BinaryNode<T> left;
+        final BinaryNode<T> right;
+        final int leftCt;
+        final int rightCt;
+        final int count;
+        final int diameter;
+        final long stamp;        // Epoch the state was made in
+        NodeVersion<T> prior;    // Older state, cut off once no open snapshot needs it
+
+        NodeVersion(BinaryNode<T> n, long stamp, NodeVersion<T> prior) {
+            element = n.element;
+            left = n.left;
+            right = n.right;
+            leftCt = n.leftCt;
+            rightCt = n.rightCt;
+            count = n.count;
+            diameter = n.diameter;
+            this.stamp = stamp;
+            this.prior = prior;
+        }
     }
 
-    /** O(n)
-     * Print a string with the paths from a node to its children
-     * @param n parent node from which the check for children paths is made
-     * @param subString string keeping track of the path to a leaf node
+    /**
+     * Position between two neighbouring elements of the tree, walked with parent links.
+     * Steps in either direction are O(1) amortized and allocate nothing.
+     * A cursor is only valid until the tree is next changed.
      */
-    private void stringAllPaths(BinaryNode n, String subString) {
-        subString += n.element + " ";
-        if (n.left == null && n.right == null) {
-            System.out.println(subString);
+    public class Cursor implements Iterator<E>, Spliterator<E> {
+        private BinaryNode<E> before;  // Node previous() returns, null at the start
+        private BinaryNode<E> after;   // Node next() returns, null at the end
+        private int beforeCopy;        // Which copy of before's element previous() returns (multiset mode)
+        private int afterCopy;         // Which copy of after's element next() returns
+        private final E lower;         // Smallest element previous() may return, null for no limit
+        private final E upper;         // Largest element next() may return, null for no limit
+
+        private Cursor(BinaryNode<E> before, BinaryNode<E> after) {
+            this(before, after, null, null);
         }
-        if (n.left != null) {
-            stringAllPaths(n.left, subString);
+
+        private Cursor(BinaryNode<E> before, BinaryNode<E> after, E lower, E upper) {
+            this.before = before;
+            this.after = after;
+            beforeCopy = before == null ? 0 : before.count - 1;
+            this.lower = lower;
+            this.upper = upper;
         }
-        if (n.right != null) {
-            stringAllPaths(n.right, subString);
+
+        public boolean hasNext() {
+            return after != null && (upper == null || after.element.compareTo(upper) <= 0);
         }
-    }
-    //my crappy first attempt that I got stuck on for a long time...
-//    private String stringAllPaths(BinaryNode<E> n, String subString, String metaString) {
-////        set substring
-//        subString += n.element + " ";
-////        if the node is null return the sub+meta
-//        if (n.left == null && n.right == null) {
-//            metaString = subString + "\n";
-//            return metaString;
-//        }
-//        //set metaString += to all of the left paths if n.left exists
-//        if (n.left != null) {
-//            metaString += stringAllPaths(n.left, subString, metaString);
-//        }
-//        //set metaString += to all the right paths too if right child exists
-//        if (n.right != null) {
-//            metaString += stringAllPaths(n.right, subString, metaString);
-//        }
-        //return the metaString
-//        return metaString;
-//    }
 
+        /**
+         * Step forward
+         * @return the element after the cursor
+         */
+        public E next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            before = after;
+            beforeCopy = afterCopy;
+            if (++afterCopy == after.count) {
+                after = successor(after);
+                afterCopy = 0;
+            }
+            return before.element;
+        }
 
-    /** O(logn)
-     * Internal method to insert into a bst subtree.
-     * This routine runs in O(??)
-     *
-     * @param newItem     the item to insert.
-     * @param subtreeRoot root of the subtree.
-     * @return the new root of the subtree.
-     */
-    private BinaryNode<E> insert(E newItem, BinaryNode<E> subtreeRoot, BinaryNode<E> parent) {
-        if (subtreeRoot == null)
-            return new BinaryNode<>(newItem, null, null, parent, 0, 0);
-
-        int compareResult = newItem.compareTo(subtreeRoot.element);
-        if (compareResult <= 0) {
-            subtreeRoot.left = insert(newItem, subtreeRoot.left, subtreeRoot);
-            subtreeRoot.leftCt++; //add to the left tree count to account if it goes to left
-        } else {
-            subtreeRoot.right = insert(newItem, subtreeRoot.right, subtreeRoot);
-            subtreeRoot.rightCt++; //add to right tree count, accounts for new node going right
+        public boolean hasPrevious() {
+            return before != null && (lower == null || before.element.compareTo(lower) >= 0);
+        }
+
+        /**
+         * Step backward
+         * @return the element before the cursor
+         */
+        public E previous() {
+            if (!hasPrevious()) throw new NoSuchElementException();
+            after = before;
+            afterCopy = beforeCopy;
+            if (beforeCopy-- == 0) {
+                before = predecessor(before);
+                beforeCopy = before == null ? 0 : before.count - 1;
+            }
+            return after.element;
+        }
+
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (!hasNext()) return false;
+            action.accept(next());
+            return true;
         }
 
-        return subtreeRoot;
+        public void forEachRemaining(Consumer<? super E> action) {
+            while (hasNext()) {
+                action.accept(next());
+            }
+        }
+
+        /**
+         * A cursor is a single ordered scan, it doesn't split
+         */
+        public Spliterator<E> trySplit() {
+            return null;
+        }
+
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        public int characteristics() {
+            return ORDERED | SORTED | NONNULL;
+        }
+
+        /**
+         * @return null, elements are in their natural order
+         */
+        public Comparator<? super E> getComparator() {
+            return null;
+        }
     }
 
     /**
-     * Internal method to find an item in a subtree.
-     * This routine runs in O(log n) on a balanced tree as there is only one recursive call that is executed and the work
-     * associated with a single call is independent of the size of the tree:
-     * a=1, b=2, k=0
-     *
-     * @param element     is item to search for.
-     * @param subtreeRoot root of subtree.
-     *                    SIDE EFFECT: Sets local variable currentNode to be the node that is found
-     * @return true if item is found
+     * Range minimum index over the tree's nodes in order.
+     * In any binary tree the lca of two nodes is the shallowest node between them in order, so once a sparse table
+     * of depths is built an lca is two table lookups. For elements, lca(a, b) is the shallowest node with an element
+     * in [a, b]. If there is no such node the searches for a and b fall off the tree at the same place: the deeper
+     * of the two nodes on either side of the gap.
      */
-    private boolean contains(E element, BinaryNode<E> subtreeRoot) {
-        if (subtreeRoot == null)
-            return false;
+    public class LcaIndex {
+        private final Object[] elements;  // Elements in order, a multiset node once per copy
+        private final int[] depth;        // Depth of each node in order
+        private final int[][] shallowest; // shallowest[k][i] is the index of the shallowest node in [i, i + 2^k)
+
+        private LcaIndex() {
+            int n = size(root);
+            elements = new Object[n];
+            depth = new int[n];
+            int i = 0;
+            Walk<E> walk = new Walk<>(root, false);
+            while (walk.next() != Walk.DONE) {
+                if (walk.event == Walk.VISIT) {
+                    for (int copy = 0; copy < walk.node.count; copy++) {
+                        elements[i] = walk.node.element;
+                        depth[i] = walk.depth;
+                        i++;
+                    }
+                }
+            }
 
-        int compareResult = element.compareTo(subtreeRoot.element);
+            int levels = n == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(n);
+            shallowest = new int[levels][];
+            if (levels == 0) return;
+            shallowest[0] = new int[n];
+            for (i = 0; i < n; i++) {
+                shallowest[0][i] = i;
+            }
+            for (int k = 1; k < levels; k++) {
+                int half = 1 << (k - 1);
+                int[] prev = shallowest[k - 1];
+                int[] row = new int[n - (1 << k) + 1];
+                for (i = 0; i < row.length; i++) {
+                    row[i] = shallower(prev[i], prev[i + half]);
+                }
+                shallowest[k] = row;
+            }
+        }
 
-        if (compareResult < 0)
-            return contains(element, subtreeRoot.left);
-        else if (compareResult > 0)
-            return contains(element, subtreeRoot.right);
-        else {
-            currentNode = subtreeRoot;
-            return true;    // Match
+        /** O(1)
+         * @param rank1 position of the first node in order (1 is the smallest, as in findNthInOrder)
+         * @param rank2 position of the second node in order
+         * @return least common ancestor of the two nodes
+         */
+        public E lcaByRank(int rank1, int rank2) {
+            if (rank1 < 1 || rank2 < 1 || rank1 > elements.length || rank2 > elements.length) {
+                throw new IndexOutOfBoundsException("rank out of range 1.." + elements.length);
+            }
+            return elementAt(shallowestBetween(Math.min(rank1, rank2) - 1, Math.max(rank1, rank2) - 1));
         }
-    }
 
+        /** O(logn)
+         * Same answer as Tree.lca at the time the index was built. Finding the elements is a binary search, the
+         * lca itself is O(1).
+         *
+         * @param element1 element in tree
+         * @param element2 second element in tree
+         * @return least common ancestor of element1 and element2, null if the tree was empty
+         */
+        public E lca(E element1, E element2) {
+            if (elements.length == 0) return null;
+            boolean inOrder = element1.compareTo(element2) < 0;
+            E low = inOrder ? element1 : element2;
+            E high = inOrder ? element2 : element1;
+            int from = countBelow(low, false);   //first index with an element >= low
+            int to = countBelow(high, true) - 1; //last index with an element <= high
+            if (from <= to) return elementAt(shallowestBetween(from, to));
+            //no element in [low, high], both searches end next to the gap between to and from
+            if (to < 0) return elementAt(from);
+            if (from >= elements.length) return elementAt(to);
+            return elementAt(depth[to] > depth[from] ? to : from);
+        }
 
-    /** O(n)
-     * Internal method to return a string of items in the tree in order
-     * This routine runs in O(??)
-     *
-     * @param t the node that roots the subtree.
+        /** O(mlogn), spread over threads for large batches
+         * results[i] is set to lca(first[i], second[i]).
+         *
+         * @param first   first element of each pair
+         * @param second  second element of each pair
+         * @param results array to fill, at least as long as first
+         */
+        public void lcaAll(E[] first, E[] second, E[] results) {
+            IntStream pairs = IntStream.range(0, first.length);
+            if (first.length > PARALLEL_THRESHOLD) pairs = pairs.parallel();
+            pairs.forEach(i -> results[i] = lca(first[i], second[i]));
+        }
+
+        /** O(m), spread over threads for large batches
+         * results[i] is set to lcaByRank(first[i], second[i]).
+         *
+         * @param first   rank of the first node of each pair
+         * @param second  rank of the second node of each pair
+         * @param results array to fill, at least as long as first
+         */
+        public void lcaAllByRank(int[] first, int[] second, E[] results) {
+            IntStream pairs = IntStream.range(0, first.length);
+            if (first.length > PARALLEL_THRESHOLD) pairs = pairs.parallel();
+            pairs.forEach(i -> results[i] = lcaByRank(first[i], second[i]));
+        }
+
+        /** O(1)
+         * @return index of the shallowest node in order positions from..to
+         */
+        private int shallowestBetween(int from, int to) {
+            int k = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+            return shallower(shallowest[k][from], shallowest[k][to - (1 << k) + 1]);
+        }
+
+        private int shallower(int i, int j) {
+            return depth[i] <= depth[j] ? i : j;
+        }
+
+        /** O(logn)
+         * @param bound     element to compare against
+         * @param inclusive true to also count elements equal to bound
+         * @return number of elements smaller than (or equal to) bound
+         */
+        private int countBelow(E bound, boolean inclusive) {
+            int lo = 0;
+            int hi = elements.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int compareResult = elementAt(mid).compareTo(bound);
+                if (compareResult < 0 || (inclusive && compareResult == 0)) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        @SuppressWarnings("unchecked")
+        private E elementAt(int i) {
+            return (E) elements[i];
+        }
+    }
+
+    /**
+     * Depth first walk over a subtree that climbs back up through parent links instead of keeping a stack,
+     * so it needs O(1) extra space however deep the tree is.
+     * Every node is reported three times: ENTER (preorder), VISIT (inorder) and EXIT (postorder).
      */
-    private String listTree(BinaryNode<E> t) {
-        if (t == null) return "";
-        StringBuilder sb = new StringBuilder();
-        sb.append(listTree(t.left));
-        sb.append(t.element.toString() + " ");
-        sb.append(listTree(t.right));
-        return sb.toString();
+    private static final class Walk<T> {
+        static final int DONE = -1;
+        static final int ENTER = 0;
+        static final int VISIT = 1;
+        static final int EXIT = 2;
+        private static final int START = 3;
+
+        private final BinaryNode<T> top;  // Root of the subtree being walked
+        private final boolean mirrored;   // Walk right children before left children
+        private boolean skip;             // Don't descend below the current node
+        BinaryNode<T> node;               // Node the last event refers to
+        int depth;                        // Depth of node below top
+        int event = START;                // Last event returned by next
+
+        Walk(BinaryNode<T> top, boolean mirrored) {
+            this.top = top;
+            this.mirrored = mirrored;
+        }
+
+        /**
+         * Only valid right after ENTER: the walk goes straight on to VISIT and EXIT of this node.
+         */
+        void skipChildren() {
+            skip = true;
+        }
+
+        /** O(1) amortized
+         * Advance to the next event
+         * @return the event for node, or DONE once the whole subtree has been walked
+         */
+        int next() {
+            BinaryNode<T> child;
+            switch (event) {
+                case START:
+                    if (top == null) return event = DONE;
+                    node = top;
+                    return event = ENTER;
+                case ENTER:
+                    child = mirrored ? node.right : node.left;
+                    if (child != null && !skip) {
+                        descend(child);
+                        return event = ENTER;
+                    }
+                    return event = VISIT;
+                case VISIT:
+                    child = mirrored ? node.left : node.right;
+                    if (child != null && !skip) {
+                        descend(child);
+                        return event = ENTER;
+                    }
+                    return event = EXIT;
+                case EXIT:
+                    if (node == top) return event = DONE;
+                    child = node;
+                    node = node.parent;
+                    depth--;
+                    skip = false;
+                    //coming back from the first child we still have to visit node itself
+                    return event = (mirrored ? node.right : node.left) == child ? VISIT : EXIT;
+                default:
+                    return DONE;
+            }
+        }
+
+        private void descend(BinaryNode<T> child) {
+            node = child;
+            depth++;
+            skip = false;
+        }
     }
 
 
@@ -427,9 +2367,15 @@ public class Tree<E extends Comparable<? super E>> {
         BinaryNode<AnyType> left;   // Left child
         BinaryNode<AnyType> right;  // Right child
         BinaryNode<AnyType> parent; //  Parent node
-        int leftCt;  // Count of nodes in left subtree
-        int rightCt; // Count of nodes in right subtree
-        int height = 0; // Height of node
+        int leftCt;  // Count of elements in left subtree
+        int rightCt; // Count of elements in right subtree
+        int count = 1; // Copies of element held here, only ever above 1 in multiset mode
+        int height = 1; // Height of node (a leaf has height 1)
+        int diameter = 1; // Width of the subtree rooted here
+        long shape = LEAF_SHAPE;      // Fingerprint of the subtree shape
+        long quasiShape = LEAF_SHAPE; // Fingerprint of the subtree shape ignoring child order
+        volatile long stamp;          // Epoch of the last change, older states are in prior
+        NodeVersion<AnyType> prior;   // State before the last change, for snapshots older than stamp
 
         /**
          * Create a printable version of Binary Node
@@ -439,26 +2385,44 @@ public class Tree<E extends Comparable<? super E>> {
          */
         public String toString() {
             StringBuilder sb = new StringBuilder();
-            sb.append("Node:");
-            sb.append(element);
-            if (parent == null) {
-                sb.append("[");
-            } else {
-                sb.append("[");
-                sb.append(parent.element);
+            try {
+                appendTo(sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); //a StringBuilder never throws
             }
-            sb.append("] ");
-            sb.append("<" + leftCt + "," + rightCt + ">");
             return sb.toString();
         }
 
+        /**
+         * Write the same text as toString
+         * @param out where to write the node
+         * @throws IOException if out fails
+         */
+        void appendTo(Appendable out) throws IOException {
+            out.append("Node:");
+            out.append(String.valueOf(element));
+            if (count > 1) out.append("x").append(Integer.toString(count));
+            out.append("[");
+            if (parent != null) {
+                out.append(String.valueOf(parent.element));
+            }
+            out.append("] ");
+            out.append("<").append(Integer.toString(leftCt)).append(",").append(Integer.toString(rightCt)).append(">");
+        }
+
 
     }
 
 
     private BinaryNode<E> root;  // Root of tree
-    private BinaryNode<E> currentNode;  // Last node accessed in tree
+    private int[] levelCounts;   // Number of nodes at each level, null when a change has made it stale
     private String treeName;     // Name of tree for printing
+    private TreeMetrics metrics; // Operation counters, null unless enableMetrics was called
+    private long epoch;          // Number of snapshots taken, nodes changed since the last one have this stamp
+    private long pinnedEpoch = NO_SNAPSHOT;  // Epoch of the oldest open snapshot when the current change began
+    private ConcurrentSkipListMap<Long, Integer> openSnapshots;  // Open snapshots per epoch, null until the first
+    private final boolean balanced;  // Keep the tree AVL balanced on insert
+    private final boolean multiset;  // Keep copies of an element as a count on one node
 
 
     // Main is a driver program for the various tests.
@@ -566,26 +2530,49 @@ public class Tree<E extends Comparable<? super E>> {
         System.out.println( "Least Common Ancestor of (8,61) " + tree1.lca( 8, 61 ) + END_LINE );
         System.out.println( "Least Common Ancestor (1,10) " + tree1.lca( 1, 10 ) + END_LINE );
 //
+//  // Test Balanced
+//        ArrayList<Integer> sorted = new ArrayList<>();
+//        for (int i = 0; i < 10000; i++) sorted.add(i);
+//        Tree<Integer> avl = new Tree<>(sorted, "AVL:", true);
+//        System.out.println("The 5000th smallest value is " + avl.findNthInOrder(5000));
+//        System.out.println("Least Common Ancestor of (17,9000) " + avl.lca(17, 9000) + END_LINE);
+//        Tree<Integer> loaded = Tree.bulkLoad(v6, "Bulk loaded Tree6:");
+//        System.out.println(loaded);
+//
+//  // Test Multiset
+//        Tree<Integer> multi6 = new Tree<>(v6, "Multiset Tree6:", false, true);
+//        System.out.println(multi6);
+//        System.out.println(multi6.listTree());
+//        System.out.println("Fringe count=" + multi6.countFringe() + ", 10th smallest is " + multi6.findNthInOrder(10));
+//
+//  // Test Set Operations
+//        System.out.println(tree2.listTree());
+//        System.out.println(tree3.listTree());
+//        System.out.println(tree2.merge(tree3, "Merge 2,3:").listTree());
+//        System.out.println(tree2.union(tree3, "Union 2,3:").listTree());
+//        System.out.println(tree2.intersection(tree3, "Intersection 2,3:").listTree());
+//        System.out.println(tree2.difference(tree3, "Difference 2,3:").listTree());
+//
 //  //Test Bonus 1
 //        System.out.println( tree6.toString(  ) );
-//        tree6.contains( val );  //Sets the currentNode node inside the tree6 class.
+//        Tree<Integer>.Cursor cursor = tree6.seek( val );  //Cursor sits just before val
 //        System.out.println( "In Tree6, starting at " + val + END_LINE );
 //        System.out.println( tree6.toString( ) );
 //        int predCount=8;  // how many predecessors do you want to see?
-//        for (int i = 0; i < predCount; i++) {
-//            System.out.println( "The next predecessor is " + tree6.predecessor() );
+//        for (int i = 0; i < predCount && cursor.hasPrevious(); i++) {
+//            System.out.println( "The next predecessor is " + cursor.previous() );
 //        }
-//  // Test Bonus 2
-//        Tree<Integer> tree8 = new Tree<>("Tree8:");
-//        Integer[] inorder = { 4, 2, 1, 7, 5, 8, 3, 6};
-//        Integer[] preorder = {1, 2, 4, 3, 5, 7, 8, 6};
-//        tree8.buildTreeTraversals(inorder, preorder, " From Traversals 1");
-//        System.out.println(tree8);
-//
-//        Integer[] inorder2 = { 2,3,6,7,10,15,20,29};
-//        Integer [] preorder2 = {10,6,2,3,7,20,15,29};
-//        tree8.buildTreeTraversals(inorder2, preorder2, " From Traversals 2");
-//        System.out.println(tree8);
+  // Test Bonus 2
+        Tree<Integer> tree8 = new Tree<>("Tree8:");
+        Integer[] inorder = { 4, 2, 1, 7, 5, 8, 3, 6};
+        Integer[] preorder = {1, 2, 4, 3, 5, 7, 8, 6};
+        tree8.buildTreeTraversals(inorder, preorder, " From Traversals 1");
+        System.out.println(tree8);
+
+        Integer[] inorder2 = { 2,3,6,7,10,15,20,29};
+        Integer [] preorder2 = {10,6,2,3,7,20,15,29};
+        tree8.buildTreeTraversals(inorder2, preorder2, " From Traversals 2");
+        System.out.println(tree8);
 
 
     }
@@ -0,0 +1,158 @@
+// Benchmark driver for Tree
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+// Times every public Tree query on random, sorted, reverse sorted and zig-zag keys, from 1k keys up to maxSize
+// (10M if asked for), in plain and balanced mode. Each benchmark warms up, then runs for a fixed time and reports
+// ns/op and bytes allocated per op.
+//
+// Usage: java TreeBenchmark [maxSize] [shape ...]
+//   e.g. java -Xmx8g TreeBenchmark 10000000 random sorted
+//
+// Plain mode on sorted, reverse and zig-zag keys builds a linked list, so insert is O(n^2) there. Those runs are
+// capped at DEGENERATE_LIMIT keys.
+public class TreeBenchmark {
+    static final String[] SHAPES = {"random", "sorted", "reverse", "zigzag"};
+    static final int DEGENERATE_LIMIT = 20_000;
+    static final long WARMUP_NANOS = 300_000_000L;
+    static final long MEASURE_NANOS = 1_000_000_000L;
+    static final int QUERIES = 1 << 12;  // Queries per timed call for the O(logn) operations
+
+    static volatile long sink;  // Keeps results alive so the JIT can't drop the work
+
+    public static void main(String[] args) {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] shapes = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : SHAPES;
+
+        System.out.printf("%-18s %-8s %-8s %9s %14s %12s%n", "benchmark", "shape", "mode", "size", "ns/op", "bytes/op");
+        for (String shape : shapes) {
+            for (int size = 1000; size <= maxSize; size *= 10) {
+                int[] keys = keys(shape, size);
+                for (boolean balanced : new boolean[]{false, true}) {
+                    if (!balanced && !shape.equals("random") && size > DEGENERATE_LIMIT) continue;
+                    runAll(shape, size, keys, balanced);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run every benchmark for one input
+     * @param shape    name of the key order
+     * @param size     number of keys
+     * @param keys     keys in insertion order
+     * @param balanced tree mode
+     */
+    static void runAll(String shape, int size, int[] keys, boolean balanced) {
+        String mode = balanced ? "avl" : "plain";
+        ArrayList<Integer> list = new ArrayList<>(size);
+        for (int key : keys) list.add(key);
+        Tree<Integer> tree = new Tree<>(list, shape, balanced);
+        Tree<Integer> same = new Tree<>(list, shape, balanced);
+
+        Random rand = new Random(17);
+        Integer[] probes = new Integer[QUERIES];
+        Integer[] partners = new Integer[QUERIES];
+        int[] ranks = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            probes[i] = keys[rand.nextInt(size)];
+            partners[i] = keys[rand.nextInt(size)];
+            ranks[i] = 1 + rand.nextInt(size);
+        }
+        int middleLevel = tree.widthInfo().height / 2;
+
+        run("insert", shape, mode, size, size, () -> new Tree<>(list, shape, balanced).width());
+        run("contains", shape, mode, size, QUERIES, () -> {
+            int found = 0;
+            for (Integer probe : probes) if (tree.contains(probe)) found++;
+            return found;
+        });
+        run("lca", shape, mode, size, QUERIES, () -> {
+            int sum = 0;
+            for (int i = 0; i < QUERIES; i++) sum += tree.lca(probes[i], partners[i]);
+            return sum;
+        });
+        run("findNthInOrder", shape, mode, size, QUERIES, () -> {
+            int sum = 0;
+            for (int rank : ranks) sum += tree.findNthInOrder(rank).length();
+            return sum;
+        });
+        run("select", shape, mode, size, QUERIES, () -> {
+            int sum = 0;
+            for (int rank : ranks) sum += tree.select(rank);
+            return sum;
+        });
+        run("countFringe", shape, mode, size, 1, tree::countFringe);
+        run("nodesInLevel", shape, mode, size, 1, () -> tree.nodesInLevel(middleLevel));
+        run("levelCounts", shape, mode, size, 1, () -> tree.levelCounts().length);
+        run("width", shape, mode, size, 1, tree::width);
+        run("isIsomorphic", shape, mode, size, 1, () -> tree.isIsomorphic(same) ? 1 : 0);
+        run("isQuasiIsomorphic", shape, mode, size, 1, () -> tree.isQuasiIsomorphic(same) ? 1 : 0);
+        run("listTree", shape, mode, size, 1, () -> tree.listTree().length());
+    }
+
+    /**
+     * Warm up, then time body until MEASURE_NANOS have passed, and print one result line
+     * @param name  benchmark name
+     * @param shape name of the key order
+     * @param mode  tree mode
+     * @param size  number of keys
+     * @param ops   operations done by one call of body
+     * @param body  work to time, its result is kept in sink
+     */
+    static void run(String name, String shape, String mode, int size, int ops, IntSupplier body) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long end = System.nanoTime() + WARMUP_NANOS;
+        do {
+            sink += body.getAsInt();
+        } while (System.nanoTime() < end);
+
+        long calls = 0;
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        end = start + MEASURE_NANOS;
+        long now;
+        do {
+            sink += body.getAsInt();
+            calls++;
+        } while ((now = System.nanoTime()) < end);
+        long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        double perOp = (double) (now - start) / (calls * ops);
+        System.out.printf("%-18s %-8s %-8s %9d %14.1f %12.1f%n", name, shape, mode, size, perOp,
+                (double) bytes / (calls * ops));
+    }
+
+    /** O(n)
+     * @param shape name of the key order
+     * @param size  number of keys
+     * @return keys 0..size-1 in the order given by shape
+     */
+    static int[] keys(String shape, int size) {
+        int[] keys = new int[size];
+        switch (shape) {
+            case "random":
+                Random rand = new Random(5435);
+                for (int i = 0; i < size; i++) keys[i] = rand.nextInt(size);
+                break;
+            case "sorted":
+                for (int i = 0; i < size; i++) keys[i] = i;
+                break;
+            case "reverse":
+                for (int i = 0; i < size; i++) keys[i] = size - 1 - i;
+                break;
+            case "zigzag": //0, n-1, 1, n-2, ...
+                for (int i = 0; i < size; i++) keys[i] = i % 2 == 0 ? i / 2 : size - 1 - i / 2;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape + ", use one of " + Arrays.toString(SHAPES));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,302 @@
+// Front end that feeds a Tree from many producer threads in sorted batches
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Producers hand keys to add, which only puts them on a bounded queue, so producers never descend the tree and
+// never lock it. When the queue is full add blocks, which is the backpressure.
+// One ingest thread owns the tree: it collects keys until it has batchSize of them or the oldest has waited
+// maxLatency, then applies the batch with Tree.insertAll (sort, then one merge pass or in order inserts).
+// flush and close travel through the same queue as the keys, so when they return every key added before them is in
+// the tree.
+// The ingest thread is the tree's only writer. Read the tree only after flush or close, from one thread, or through
+// a snapshot from TreeIngester.snapshot, which the ingest thread takes. Never call tree.snapshot() directly while
+// the ingester runs, a snapshot must be taken by the thread that changes the tree.
+public class TreeIngester<E extends Comparable<? super E>> implements AutoCloseable {
+    private static final int DEFAULT_BATCH = 4096;
+    private static final long DEFAULT_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Start ingesting into tree with default batch size, latency and queue capacity
+     *
+     * @param tree tree to insert into, nothing else may change it while the ingester runs
+     */
+    public TreeIngester(Tree<E> tree) {
+        this(tree, DEFAULT_BATCH, DEFAULT_LATENCY_NANOS, TimeUnit.NANOSECONDS, 16 * DEFAULT_BATCH);
+    }
+
+    /**
+     * Start ingesting into tree
+     *
+     * @param tree       tree to insert into, nothing else may change it while the ingester runs
+     * @param batchSize  most keys applied at once
+     * @param maxLatency longest a key waits for its batch to fill
+     * @param unit       unit of maxLatency
+     * @param capacity   keys that can wait in the queue before add blocks
+     */
+    public TreeIngester(Tree<E> tree, int batchSize, long maxLatency, TimeUnit unit, int capacity) {
+        if (batchSize < 1 || capacity < 1 || maxLatency < 0) {
+            throw new IllegalArgumentException("batchSize and capacity must be positive, maxLatency not negative");
+        }
+        this.tree = tree;
+        this.batchSize = batchSize;
+        this.maxLatencyNanos = unit.toNanos(maxLatency);
+        queue = new ArrayBlockingQueue<>(capacity);
+        worker = new Thread(this::ingest, "TreeIngester");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queue a key for insertion. Safe to call from any number of threads.
+     *
+     * @param element the item to insert
+     * @throws InterruptedException  if interrupted while waiting for room in the queue
+     * @throws IllegalStateException if the ingester is closed
+     */
+    public void add(E element) throws InterruptedException {
+        if (element == null) throw new NullPointerException("null key");
+        gate.readLock().lock();
+        try {
+            if (closed) throw new IllegalStateException("ingester is closed");
+            queue.put(element);
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    /**
+     * Wait until every key added before this call is in the tree
+     *
+     * @throws InterruptedException  if interrupted while waiting
+     * @throws IllegalStateException if a batch failed to apply, or the ingester is closed
+     */
+    public void flush() throws InterruptedException {
+        await(new Flush(false, false));
+    }
+
+    /**
+     * Wait until every key added before this call is in the tree, then have the ingest thread snapshot the tree.
+     * The snapshot can be read from any thread while ingesting goes on. Close it when done.
+     *
+     * @return snapshot holding every key added before this call
+     * @throws InterruptedException  if interrupted while waiting
+     * @throws IllegalStateException if a batch failed to apply, or the ingester is closed
+     */
+    public Tree<E>.Snapshot snapshot() throws InterruptedException {
+        Flush marker = new Flush(false, true);
+        await(marker);
+        return marker.taken;
+    }
+
+    /**
+     * Queue a marker behind the keys added so far and wait for the ingest thread to reach it
+     * @param marker marker to queue
+     */
+    private void await(Flush marker) throws InterruptedException {
+        gate.readLock().lock();
+        try {
+            if (closed) throw new IllegalStateException("ingester is closed");
+            queue.put(marker);
+        } finally {
+            gate.readLock().unlock();
+        }
+        marker.done.await();
+        checkFailure();
+    }
+
+    /**
+     * Apply everything added so far and stop the ingest thread. Later adds fail.
+     * Waiting can't be interrupted, an interrupt that comes in the meantime is kept for the caller's thread.
+     *
+     * @throws IllegalStateException if a batch failed to apply
+     */
+    public void close() {
+        gate.writeLock().lock(); //waits out adds in progress, so they are ahead of the marker
+        try {
+            if (closed) return;
+            closed = true;
+        } finally {
+            gate.writeLock().unlock();
+        }
+        boolean interrupted = false;
+        Flush last = new Flush(true, false);
+        while (true) {
+            try {
+                queue.put(last);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        while (worker.isAlive()) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        checkFailure();
+    }
+
+    /**
+     * @return the tree being filled, only safe to read after flush or close
+     */
+    public Tree<E> tree() {
+        return tree;
+    }
+
+    /**
+     * @return number of batches applied so far
+     */
+    public long batches() {
+        return batches;
+    }
+
+    private void checkFailure() {
+        RuntimeException e = failure;
+        if (e != null) throw new IllegalStateException("a batch failed to apply", e);
+    }
+
+    /**
+     * Body of the ingest thread: collect keys into batches and apply them until closed
+     */
+    @SuppressWarnings("unchecked")
+    private void ingest() {
+        ArrayList<E> batch = new ArrayList<>(batchSize);
+        ArrayList<Object> drained = new ArrayList<>(batchSize);
+        long deadline = 0;  //when the oldest key in batch has waited maxLatency
+        try {
+            while (true) {
+                Object item = batch.isEmpty() ? queue.take()
+                        : queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (item == null) { //the oldest key has waited long enough
+                    apply(batch);
+                    continue;
+                }
+                drained.add(item);
+                queue.drainTo(drained, batchSize - batch.size());
+                for (Object next : drained) {
+                    if (next instanceof TreeIngester<?>.Flush) {
+                        apply(batch);
+                        Flush marker = (Flush) next;
+                        if (marker.snapshot && failure == null) marker.taken = tree.snapshot();
+                        marker.done.countDown();
+                        if (marker.last) return;
+                    } else {
+                        if (batch.isEmpty()) deadline = System.nanoTime() + maxLatencyNanos;
+                        batch.add((E) next);
+                        if (batch.size() >= batchSize) apply(batch);
+                    }
+                }
+                drained.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); //only the JVM shutting down interrupts a daemon like this
+        }
+    }
+
+    /**
+     * Insert a batch into the tree and empty it. A failure is kept for flush and close to report.
+     * @param batch keys to insert
+     */
+    private void apply(ArrayList<E> batch) {
+        if (batch.isEmpty()) return;
+        try {
+            tree.insertAll(batch);
+            batches++;
+        } catch (RuntimeException e) {
+            if (failure == null) failure = e;
+        }
+        batch.clear();
+    }
+
+    // Marker put in the queue by flush, snapshot and close
+    private final class Flush {
+        final CountDownLatch done = new CountDownLatch(1);  // Opened once everything before it is applied
+        final boolean last;      // Stop the ingest thread after this one
+        final boolean snapshot;  // Snapshot the tree once everything before it is applied
+        Tree<E>.Snapshot taken;  // The snapshot, set before done opens
+
+        Flush(boolean last, boolean snapshot) {
+            this.last = last;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private final Tree<E> tree;         // Tree being filled, only the ingest thread changes it
+    private final int batchSize;        // Most keys applied at once
+    private final long maxLatencyNanos; // Longest a key waits for its batch to fill
+    private final BlockingQueue<Object> queue;  // Keys and Flush markers in arrival order
+    private final Thread worker;        // The ingest thread
+    private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();  // Keeps adds ahead of close's marker
+    private volatile boolean closed;    // Set once close has started
+    private volatile long batches;      // Batches applied, written only by the ingest thread
+    private volatile RuntimeException failure;  // First exception thrown while applying a batch
+
+
+    // Main compares producers inserting into a locked tree one key at a time with the same producers going through
+    // an ingester, for a few batch sizes.
+    public static void main(String[] args) throws InterruptedException {
+        final int producers = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        final int perProducer = args.length > 0 ? Integer.parseInt(args[0]) : 250_000;
+
+        Tree<Integer> locked = new Tree<>("Locked:", true);
+        long start = System.nanoTime();
+        runProducers(producers, perProducer, key -> {
+            synchronized (locked) {
+                locked.insert(key);
+            }
+        });
+        long elapsed = System.nanoTime() - start;
+        System.out.println("locked insert: " + rate(producers * (long) perProducer, elapsed) + " keys/ms, size "
+                + locked.rangeCount(Integer.MIN_VALUE, Integer.MAX_VALUE));
+
+        for (int batchSize = 256; batchSize <= 65536; batchSize *= 16) {
+            Tree<Integer> target = new Tree<>("Ingested:", true);
+            TreeIngester<Integer> ingester = new TreeIngester<>(target, batchSize, 10, TimeUnit.MILLISECONDS,
+                    4 * batchSize);
+            start = System.nanoTime();
+            runProducers(producers, perProducer, ingester::add);
+            ingester.close();
+            elapsed = System.nanoTime() - start;
+            System.out.println("batch " + batchSize + ": " + rate(producers * (long) perProducer, elapsed)
+                    + " keys/ms in " + ingester.batches() + " batches, size "
+                    + target.rangeCount(Integer.MIN_VALUE, Integer.MAX_VALUE)
+                    + ", same elements " + target.listTree().substring(9).equals(locked.listTree().substring(7)));
+        }
+    }
+
+    private interface Producer {
+        void accept(int key) throws InterruptedException;
+    }
+
+    private static void runProducers(int producers, int perProducer, Producer sink) throws InterruptedException {
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            threads[p] = new Thread(() -> {
+                Random rand = new Random(id);
+                try {
+                    for (int i = 0; i < perProducer; i++) {
+                        sink.accept(rand.nextInt());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+    }
+
+    private static long rate(long keys, long nanos) {
+        return keys * 1_000_000L / nanos;
+    }
+}
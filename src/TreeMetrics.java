@@ -0,0 +1,215 @@
+// Operation counters for one Tree, published as an MBean
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.ToIntFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Tree only creates one of these when metrics are turned on, and checks for null before recording, so a tree without
+// metrics pays one field read per operation. The counters are LongAdders, so recording from several reader threads
+// doesn't contend on one cache line.
+// Size and height are read straight from the tree when a JMX client asks for them, without synchronization, so while
+// the tree is changing they can be slightly out of date.
+// The MBean server keeps registered beans for good, so the tree is only held through a WeakReference: a tree dropped
+// without disableMetrics can still be collected, and its bean is unregistered when it is. Until then size and height
+// of a collected tree read 0.
+public class TreeMetrics implements TreeMetricsMBean {
+    static final int CONTAINS = 0;
+    static final int LCA = 1;
+    static final int INSERT = 2;
+    static final int REMOVE = 3;
+    static final int SELECT = 4;  // findNthInOrder and select
+    static final int RANK = 5;    // rank, and each bound of rangeCount
+    static final int MAX_DEPTH = 64;  // Descents this deep or deeper share the last histogram entry
+    private static final String[] OPERATIONS = {"contains", "lca", "insert", "remove", "select", "rank"};
+    private static final AtomicInteger nextId = new AtomicInteger();  // Keeps names unique for trees with one label
+    private static final Cleaner unregisterer = Cleaner.create();      // Unregisters beans of collected trees
+
+    /**
+     * @param label  name of the tree, part of the MBean name
+     * @param tree   tree to measure, only weakly held
+     * @param size   reads the number of elements in a tree, must not hold on to the tree itself
+     * @param height reads the height of a tree, must not hold on to the tree itself
+     */
+    <T> TreeMetrics(String label, T tree, ToIntFunction<? super T> size, ToIntFunction<? super T> height) {
+        WeakReference<T> treeRef = new WeakReference<>(tree);
+        this.size = () -> readOrZero(treeRef, size);
+        this.height = () -> readOrZero(treeRef, height);
+        unregisterer.register(tree, this::unregister); //does nothing if disableMetrics already did
+        counts = newAdders(OPERATIONS.length);
+        nanos = newAdders(OPERATIONS.length);
+        comparisons = newAdders(OPERATIONS.length);
+        depths = newAdders(MAX_DEPTH);
+        try {
+            name = new ObjectName("Tree:type=TreeMetrics,name=" + ObjectName.quote(String.valueOf(label))
+                    + ",id=" + nextId.getAndIncrement());
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Can't name metrics for tree " + label, e);
+        }
+    }
+
+    /**
+     * @param treeRef the tree, possibly collected
+     * @param read    reads a statistic of the tree
+     * @return the statistic, 0 once the tree is gone
+     */
+    private static <T> int readOrZero(WeakReference<T> treeRef, ToIntFunction<? super T> read) {
+        T tree = treeRef.get();
+        return tree == null ? 0 : read.applyAsInt(tree);
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /** O(1)
+     * Count one finished operation
+     * @param operation   one of CONTAINS, LCA, INSERT, REMOVE, SELECT, RANK
+     * @param startNanos  System.nanoTime() when the operation started
+     * @param depth       nodes visited on the way down
+     * @param comparisons element comparisons made
+     */
+    void record(int operation, long startNanos, int depth, int comparisons) {
+        long elapsed = System.nanoTime() - startNanos;
+        counts[operation].increment();
+        nanos[operation].add(elapsed);
+        this.comparisons[operation].add(comparisons);
+        depths[Math.min(depth, MAX_DEPTH - 1)].increment();
+    }
+
+    /**
+     * Publish these metrics on the platform MBean server
+     */
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't register " + name, e);
+        }
+    }
+
+    /**
+     * Remove these metrics from the platform MBean server
+     */
+    void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't unregister " + name, e);
+        }
+    }
+
+    /**
+     * @return name these metrics are registered under
+     */
+    public ObjectName getName() {
+        return name;
+    }
+
+    public String[] getOperations() {
+        return OPERATIONS.clone();
+    }
+
+    public long[] getOperationCounts() {
+        long[] result = new long[OPERATIONS.length];
+        for (int op = 0; op < result.length; op++) {
+            result[op] = counts[op].sum();
+        }
+        return result;
+    }
+
+    public double[] getMeanNanos() {
+        return means(nanos);
+    }
+
+    public double[] getMeanComparisons() {
+        return means(comparisons);
+    }
+
+    /**
+     * @param totals per operation totals
+     * @return each total divided by its operation count, 0 for operations never called
+     */
+    private double[] means(LongAdder[] totals) {
+        double[] result = new double[OPERATIONS.length];
+        for (int op = 0; op < result.length; op++) {
+            long count = counts[op].sum();
+            result[op] = count == 0 ? 0 : (double) totals[op].sum() / count;
+        }
+        return result;
+    }
+
+    public long getComparisons() {
+        long total = 0;
+        for (LongAdder adder : comparisons) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    public long[] getDepthHistogram() {
+        long[] result = new long[MAX_DEPTH];
+        for (int d = 0; d < MAX_DEPTH; d++) {
+            result[d] = depths[d].sum();
+        }
+        return result;
+    }
+
+    public double getMeanDepth() {
+        long count = 0;
+        long total = 0;
+        for (int d = 0; d < MAX_DEPTH; d++) {
+            long atDepth = depths[d].sum();
+            count += atDepth;
+            total += atDepth * d;
+        }
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    public int getSize() {
+        return size.getAsInt();
+    }
+
+    public int getHeight() {
+        return height.getAsInt();
+    }
+
+    public int getOptimalHeight() {
+        return 32 - Integer.numberOfLeadingZeros(getSize());
+    }
+
+    public double getHeightRatio() {
+        int optimal = getOptimalHeight();
+        return optimal == 0 ? 1 : (double) getHeight() / optimal;
+    }
+
+    public void reset() {
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            counts[op].reset();
+            nanos[op].reset();
+            comparisons[op].reset();
+        }
+        for (LongAdder adder : depths) {
+            adder.reset();
+        }
+    }
+
+    private final LongAdder[] counts;       // Calls of each operation
+    private final LongAdder[] nanos;        // Total time of each operation
+    private final LongAdder[] comparisons;  // Total element comparisons of each operation
+    private final LongAdder[] depths;       // Histogram of nodes visited on the way down
+    private final IntSupplier size;         // Reads the tree's size, through a WeakReference
+    private final IntSupplier height;       // Reads the tree's height, through a WeakReference
+    private final ObjectName name;          // Name of the MBean
+}
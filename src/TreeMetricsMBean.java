@@ -0,0 +1,64 @@
+// Management interface of TreeMetrics, what JMX clients such as jconsole see
+
+public interface TreeMetricsMBean {
+    /**
+     * @return names of the timed operations, in the order used by the per operation arrays
+     */
+    String[] getOperations();
+
+    /**
+     * @return number of calls of each operation
+     */
+    long[] getOperationCounts();
+
+    /**
+     * @return mean time of each operation in nanoseconds
+     */
+    double[] getMeanNanos();
+
+    /**
+     * @return mean number of element comparisons of each operation
+     */
+    double[] getMeanComparisons();
+
+    /**
+     * @return element comparisons made by all operations
+     */
+    long getComparisons();
+
+    /**
+     * @return histogram of descent depths, entry d counts operations that visited d nodes on their way down
+     * (the last entry also counts everything deeper)
+     */
+    long[] getDepthHistogram();
+
+    /**
+     * @return mean number of nodes visited on the way down, over all operations
+     */
+    double getMeanDepth();
+
+    /**
+     * @return number of elements in the tree
+     */
+    int getSize();
+
+    /**
+     * @return height of the tree, a single node has height 1
+     */
+    int getHeight();
+
+    /**
+     * @return smallest possible height for the current size, ceil(log2(n + 1))
+     */
+    int getOptimalHeight();
+
+    /**
+     * @return height divided by optimal height, 1 for a perfectly balanced tree and n/log2(n) for a list
+     */
+    double getHeightRatio();
+
+    /**
+     * Zero every counter and the histogram
+     */
+    void reset();
+}